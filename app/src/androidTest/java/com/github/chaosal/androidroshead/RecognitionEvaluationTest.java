@@ -0,0 +1,66 @@
+package com.github.chaosal.androidroshead;
+
+import android.app.Application;
+import android.test.ApplicationTestCase;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Replays recordings pushed to the app's external files directory ("evaluation" with labels.txt)
+ * through the installed model, the app must have been started once to install it.
+ */
+public class RecognitionEvaluationTest extends ApplicationTestCase<Application> {
+
+    private final static String CONTEXT = RecognitionEvaluationTest.class.getSimpleName();
+    private final static String KWS_SEARCH = "selfName";
+
+    private File recordings;
+    private File modelDir;
+
+    public RecognitionEvaluationTest() {
+        super(Application.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        recordings = new File(getContext().getExternalFilesDir(null), "evaluation");
+        modelDir = new File(getContext().getFilesDir(), ModelInstaller.ASSETS_DIR);
+        //JUnit 3 runner, no assumptions: a missing setup is a failure rather than a silent pass
+        assertTrue("no recordings, push " + RecognitionEvaluator.LABELS + " and raw audio to " + recordings,
+                new File(recordings, RecognitionEvaluator.LABELS).isFile());
+        assertTrue("no model in " + modelDir + ", start the app once to install it", modelDir.isDirectory());
+    }
+
+    public void testFalseAcceptAndRejectRates() throws Exception {
+        final AudioRecognizer recognizer = SharedRecognizer.obtain(modelDir, "acc-model", "cmudict.dict", 1e-25f);
+        SharedRecognizer.addGrammarSearch("grammar", new File(modelDir, "grammar.gram"));
+        final ConfidenceScorer scorer = new ConfidenceScorer(SpeechRecognitionNode.DEFAULT_COMMAND_SCORE_THRESHOLD,
+                SpeechRecognitionNode.DEFAULT_SCORE_SPREAD, 0.1, 1, SpeechRecognitionNode.DEFAULT_MIN_CONFIDENCE);
+        try {
+            final RecognitionEvaluator.Result result = new RecognitionEvaluator(recognizer.getDecoder(), scorer)
+                    .evaluate(recordings, "grammar");
+            Log.i(CONTEXT, result.toString());
+            assertTrue(result.getTotal() > 0);
+        } finally {
+            SharedRecognizer.shutdown();
+        }
+    }
+
+    public void testWakePhraseFalseAcceptRate() throws Exception {
+        final String phrase = getContext().getString(R.string.recognitionName);
+        final AudioRecognizer recognizer = SharedRecognizer.obtain(modelDir, "acc-model", "cmudict.dict", 1e-25f);
+        SharedRecognizer.addKeyphraseSearch(KWS_SEARCH, phrase);
+        final ConfidenceScorer scorer = new ConfidenceScorer(SpeechRecognitionNode.DEFAULT_WAKE_SCORE_THRESHOLD,
+                SpeechRecognitionNode.DEFAULT_SCORE_SPREAD, 0.1, 1, SpeechRecognitionNode.DEFAULT_MIN_CONFIDENCE);
+        try {
+            final RecognitionEvaluator.Result result = new RecognitionEvaluator(recognizer.getDecoder(), scorer)
+                    .evaluateWakePhrase(recordings, KWS_SEARCH, phrase);
+            Log.i(CONTEXT, "wake phrase " + result);
+            assertTrue(result.getTotal() > 0);
+        } finally {
+            SharedRecognizer.shutdown();
+        }
+    }
+}
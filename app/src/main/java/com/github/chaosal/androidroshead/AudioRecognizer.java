@@ -0,0 +1,332 @@
+package com.github.chaosal.androidroshead;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.cmu.pocketsphinx.Config;
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+import edu.cmu.pocketsphinx.RecognitionListener;
+import edu.cmu.pocketsphinx.Segment;
+
+/**
+ * Recognizer reading the microphone on its own thread, like pocketsphinx SpeechRecognizer,
+ * with a tap on the audio that is fed to the decoder. Recognition events are delivered on the main thread.
+ * A search may be gated by a {@link VoiceActivityDetector}: the decoder then only gets speech-like audio.
+ */
+public class AudioRecognizer {
+
+    static {
+        System.loadLibrary("pocketsphinx_jni");
+    }
+
+    private final static String CONTEXT = AudioRecognizer.class.getSimpleName();
+    private final static float BUFFER_SECONDS = 0.4f;
+    public final static int NO_TIMEOUT = -1;
+    private final static Metrics.Counter AUDIO_MILLIS = Metrics.counter("speech/audio_ms");
+    private final static Metrics.Counter DECODED_MILLIS = Metrics.counter("speech/decoded_ms");
+    //a 400 ms read decodes in a few ms, whole ms per call would lose most of it
+    private final static Metrics.Counter DECODER_CPU_MICROS = Metrics.counter("speech/decoder_cpu_us");
+
+    /**
+     * Audio as read from the microphone, called on the recognizer thread which must not be blocked
+     */
+    public interface AudioListener {
+        void onAudio(short[] buffer, int length);
+    }
+
+    private final Decoder decoder;
+    private final int sampleRate;
+    private final int bufferSize;
+    private final AudioRecord recorder;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Set<RecognitionListener> listeners = new HashSet<>();
+    private volatile AudioListener audioListener;
+    private Thread recognizerThread;
+
+    public AudioRecognizer(Config config) throws IOException {
+        decoder = new Decoder(config);
+        sampleRate = (int) decoder.getConfig().getFloat("-samprate");
+        bufferSize = Math.round(sampleRate * BUFFER_SECONDS);
+        recorder = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, sampleRate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferSize * 2);
+        if (recorder.getState() == AudioRecord.STATE_UNINITIALIZED) {
+            recorder.release();
+            throw new IOException("Failed to initialize recorder. Microphone might be already in use.");
+        }
+    }
+
+    public void addListener(RecognitionListener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(RecognitionListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * @param listener null to remove
+     */
+    public void setAudioListener(AudioListener listener) {
+        audioListener = listener;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean startListening(String searchName) {
+        return startListening(searchName, NO_TIMEOUT);
+    }
+
+    /**
+     * @param timeout ms of no speech after which recognition stops
+     */
+    public boolean startListening(String searchName, int timeout) {
+        return startListening(searchName, timeout, null);
+    }
+
+    /**
+     * @param timeout ms of no speech after which recognition stops
+     * @param gate    passes the audio to decode, null for all of it
+     */
+    public boolean startListening(String searchName, int timeout, VoiceActivityDetector gate) {
+        if (recognizerThread != null)
+            return false;
+        Log.i(CONTEXT, String.format("Start recognition \"%s\"%s", searchName, gate != null ? " gated" : ""));
+        decoder.setSearch(searchName);
+        recognizerThread = new RecognizerThread(timeout, gate);
+        recognizerThread.start();
+        return true;
+    }
+
+    private boolean stopRecognizerThread() {
+        if (recognizerThread == null)
+            return false;
+        try {
+            recognizerThread.interrupt();
+            recognizerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recognizerThread = null;
+        return true;
+    }
+
+    /**
+     * Stops recognition, the final result is posted to the listeners
+     */
+    public boolean stop() {
+        final boolean stopped = stopRecognizerThread();
+        if (stopped) {
+            Log.i(CONTEXT, "Stop recognition");
+            mainHandler.post(new ResultEvent(decoder.hyp(), true));
+        }
+        return stopped;
+    }
+
+    /**
+     * Stops recognition without a result
+     */
+    public boolean cancel() {
+        final boolean stopped = stopRecognizerThread();
+        if (stopped)
+            Log.i(CONTEXT, "Cancel recognition");
+        return stopped;
+    }
+
+    public Decoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Stops the recognizer thread before releasing the microphone and the native decoder it uses
+     */
+    public void shutdown() {
+        cancel();
+        recorder.release();
+        decoder.delete();
+    }
+
+    public String getSearchName() {
+        return decoder.getSearch();
+    }
+
+    public void addGrammarSearch(String name, File file) {
+        Log.i(CONTEXT, String.format("Load JSGF %s", file));
+        decoder.setJsgfFile(name, file.getPath());
+    }
+
+    public void addKeyphraseSearch(String name, String phrase) {
+        decoder.setKeyphrase(name, phrase);
+    }
+
+    /**
+     * Length of the last segment of the word, the score of a keyphrase covers it rather than the whole utterance
+     *
+     * @return frames of the segment or of the utterance if the word has none
+     */
+    public static int wordFrames(Decoder decoder, String word) {
+        int frames = 0;
+        for (Segment segment : decoder.seg())
+            if (word.equals(segment.getWord()))
+                frames = segment.getEndFrame() - segment.getStartFrame() + 1;
+        return frames > 0 ? frames : decoder.nFrames();
+    }
+
+    private final class RecognizerThread extends Thread {
+
+        private final int timeoutSamples;
+        private final VoiceActivityDetector gate;
+        private int remainingSamples;
+
+        RecognizerThread(int timeout, VoiceActivityDetector gate) {
+            super("recognizer");
+            setPriority(HeadScheduler.Lane.AUDIO.priority);//blocks on the microphone, so not a lane task
+            timeoutSamples = timeout == NO_TIMEOUT ? NO_TIMEOUT : timeout * sampleRate / 1000;
+            remainingSamples = timeoutSamples;
+            this.gate = gate;
+        }
+
+        @Override
+        public void run() {
+            recorder.startRecording();
+            if (recorder.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED) {
+                recorder.stop();
+                mainHandler.post(new ErrorEvent(new IOException("Failed to start recording. Microphone might be already in use.")));
+                return;
+            }
+            decoder.startUtt();
+            final short[] buffer = new short[bufferSize];
+            final short[] gated = gate != null ? new short[bufferSize + gate.getPreRollSamples()] : buffer;
+            boolean inSpeech = decoder.getInSpeech();
+            recorder.read(buffer, 0, buffer.length);//skip the buffered audio
+
+            while (!interrupted() && (timeoutSamples == NO_TIMEOUT || remainingSamples > 0)) {
+                final int read = recorder.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    mainHandler.post(new ErrorEvent(new IOException("error reading audio buffer")));
+                    break;
+                }
+                if (read > 0) {
+                    final AudioListener listener = audioListener;
+                    if (listener != null)
+                        listener.onAudio(buffer, read);
+                    AUDIO_MILLIS.add(read * 1000L / sampleRate);
+                    final int decoded = gate != null ? gate.process(buffer, read, gated) : read;
+                    if (decoded > 0)
+                        inSpeech = decode(gated, decoded, inSpeech);
+                }
+                if (timeoutSamples != NO_TIMEOUT)
+                    remainingSamples -= read;
+            }
+            recorder.stop();
+            decoder.endUtt();
+            mainHandler.removeCallbacksAndMessages(null);
+            if (timeoutSamples != NO_TIMEOUT && remainingSamples <= 0)
+                mainHandler.post(new TimeoutEvent());
+        }
+
+        /**
+         * @return whether the decoder is in speech
+         */
+        private boolean decode(short[] audio, int length, boolean inSpeech) {
+            final long cpuStart = Debug.threadCpuTimeNanos();
+            decoder.processRaw(audio, length, false, false);
+            DECODER_CPU_MICROS.add((Debug.threadCpuTimeNanos() - cpuStart) / 1000);
+            DECODED_MILLIS.add(length * 1000L / sampleRate);
+            if (decoder.getInSpeech() != inSpeech) {
+                inSpeech = decoder.getInSpeech();
+                mainHandler.post(new InSpeechChangeEvent(inSpeech));
+            }
+            if (inSpeech)
+                remainingSamples = timeoutSamples;
+            final Hypothesis hypothesis = decoder.hyp();
+            mainHandler.post(new ResultEvent(hypothesis, false));
+            return inSpeech;
+        }
+    }
+
+    private abstract class RecognitionEvent implements Runnable {
+        @Override
+        public void run() {
+            final RecognitionListener[] emptyArray = new RecognitionListener[0];
+            final RecognitionListener[] copy;
+            synchronized (listeners) {
+                copy = listeners.toArray(emptyArray);
+            }
+            for (RecognitionListener listener : copy)
+                execute(listener);
+        }
+
+        protected abstract void execute(RecognitionListener listener);
+    }
+
+    private final class InSpeechChangeEvent extends RecognitionEvent {
+        private final boolean state;
+
+        InSpeechChangeEvent(boolean state) {
+            this.state = state;
+        }
+
+        @Override
+        protected void execute(RecognitionListener listener) {
+            if (state)
+                listener.onBeginningOfSpeech();
+            else
+                listener.onEndOfSpeech();
+        }
+    }
+
+    private final class ResultEvent extends RecognitionEvent {
+        private final Hypothesis hypothesis;
+        private final boolean finalResult;
+
+        ResultEvent(Hypothesis hypothesis, boolean finalResult) {
+            this.hypothesis = hypothesis;
+            this.finalResult = finalResult;
+        }
+
+        @Override
+        protected void execute(RecognitionListener listener) {
+            if (finalResult)
+                listener.onResult(hypothesis);
+            else
+                listener.onPartialResult(hypothesis);
+        }
+    }
+
+    private final class ErrorEvent extends RecognitionEvent {
+        private final Exception exception;
+
+        ErrorEvent(Exception exception) {
+            this.exception = exception;
+        }
+
+        @Override
+        protected void execute(RecognitionListener listener) {
+            listener.onError(exception);
+        }
+    }
+
+    private final class TimeoutEvent extends RecognitionEvent {
+        @Override
+        protected void execute(RecognitionListener listener) {
+            listener.onTimeout();
+        }
+    }
+}
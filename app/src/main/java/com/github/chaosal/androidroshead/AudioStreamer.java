@@ -0,0 +1,192 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cuts microphone audio into chunks published on an executor (the network lane), so the recognizer thread
+ * only copies samples. Chunks filled while a drain waits on the executor are published by it, not posted again.
+ * Chunks come from a fixed pool and are returned after publishing, when the pool runs dry audio is dropped
+ * rather than waiting. The last seconds of audio are kept in a pre-roll ring and streamed first when streaming
+ * starts, so the stream of a command includes the wake word.
+ */
+public class AudioStreamer implements AudioRecognizer.AudioListener {
+
+    public interface Sink {
+        /**
+         * Called on the executor, the samples are reused after return
+         */
+        void publish(short[] samples, int length);
+    }
+
+    private static final class Chunk {
+        final short[] samples;
+        int length;
+
+        Chunk(int size) {
+            samples = new short[size];
+        }
+    }
+
+    private final Sink sink;
+    private final Executor executor;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+    private final short[] preRoll;
+    private int preRollPosition;
+    private int preRollLength;
+    private Chunk current;
+    private boolean wasStreaming;
+    private volatile boolean streaming;
+    private volatile long dropped;
+    private volatile boolean started;
+    private final AtomicBoolean posted = new AtomicBoolean();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            posted.set(false);
+            Chunk chunk;
+            while (started && (chunk = filled.poll()) != null) {
+                try {
+                    sink.publish(chunk.samples, chunk.length);
+                } finally {
+                    free.add(chunk);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param chunkSamples   samples per published chunk
+     * @param chunks         pool size
+     * @param preRollSamples audio kept before streaming starts
+     */
+    public AudioStreamer(Sink sink, Executor executor, int chunkSamples, int chunks, int preRollSamples) {
+        this.sink = sink;
+        this.executor = executor;
+        free = new ArrayBlockingQueue<>(chunks);
+        filled = new ArrayBlockingQueue<>(chunks);
+        for (int i = 0; i < chunks; i++)
+            free.add(new Chunk(chunkSamples));
+        preRoll = new short[preRollSamples];
+    }
+
+    public void start() {
+        started = true;
+        post();
+    }
+
+    /**
+     * Chunks still waiting are not published
+     */
+    public void shutdown() {
+        started = false;
+    }
+
+    /**
+     * Starts streaming with the pre-roll audio or stops it, applied on the next audio buffer
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Samples lost because no chunk was free
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public void onAudio(short[] buffer, int length) {
+        final boolean streaming = this.streaming;
+        if (streaming && !wasStreaming && preRoll.length > 0) {
+            final int start = (preRollPosition - preRollLength + preRoll.length) % preRoll.length;
+            final int first = Math.min(preRollLength, preRoll.length - start);
+            append(preRoll, start, first);
+            append(preRoll, 0, preRollLength - first);
+        }
+        if (!streaming && wasStreaming)
+            flush();
+        wasStreaming = streaming;
+        if (streaming)
+            append(buffer, 0, length);
+        keep(buffer, length);
+    }
+
+    private void keep(short[] buffer, int length) {
+        if (preRoll.length == 0)
+            return;
+        final int offset = Math.max(0, length - preRoll.length);
+        int position = offset;
+        while (position < length) {
+            final int count = Math.min(length - position, preRoll.length - preRollPosition);
+            System.arraycopy(buffer, position, preRoll, preRollPosition, count);
+            position += count;
+            preRollPosition = (preRollPosition + count) % preRoll.length;
+        }
+        preRollLength = Math.min(preRoll.length, preRollLength + length - offset);
+    }
+
+    private void append(short[] buffer, int offset, int length) {
+        int position = offset;
+        while (position < offset + length) {
+            if (current == null) {
+                current = free.poll();
+                if (current == null) {
+                    dropped += offset + length - position;
+                    return;
+                }
+                current.length = 0;
+            }
+            final int count = Math.min(offset + length - position, current.samples.length - current.length);
+            System.arraycopy(buffer, position, current.samples, current.length, count);
+            current.length += count;
+            position += count;
+            if (current.length == current.samples.length)
+                flush();
+        }
+    }
+
+    private void flush() {
+        if (current == null)
+            return;
+        if (current.length > 0) {
+            filled.add(current);//never full: the pool is its size
+            post();
+        } else
+            free.add(current);
+        current = null;
+    }
+
+    private void post() {
+        if (started && !filled.isEmpty() && posted.compareAndSet(false, true))
+            executor.execute(drain);
+    }
+
+    /**
+     * G.711 mu-law, halves 16 bit audio with little loss on speech
+     */
+    public static byte mulaw(short sample) {
+        final int bias = 0x84;
+        final int clip = 32635;
+        int value = sample;
+        final int sign = value < 0 ? 0x80 : 0;
+        if (value < 0)
+            value = -value;
+        if (value > clip)
+            value = clip;
+        value += bias;
+        int exponent = 7;
+        for (int mask = 0x4000; (value & mask) == 0 && exponent > 0; mask >>= 1)
+            exponent--;
+        final int mantissa = (value >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+}
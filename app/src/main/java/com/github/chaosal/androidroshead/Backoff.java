@@ -0,0 +1,50 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.Random;
+
+/**
+ * Exponential retry delays with jitter: every delay doubles up to a maximum, and up to a quarter of it is
+ * taken off at random so heads reconnecting to a restarted master do not retry in lockstep.
+ */
+public class Backoff {
+
+    private final long initialMillis;
+    private final long maxMillis;
+    private final Random random;
+    private long delay;
+    private int attempts;
+
+    public Backoff(long initialMillis, long maxMillis, Random random) {
+        if (initialMillis <= 0 || maxMillis < initialMillis)
+            throw new IllegalArgumentException("0 < initialMillis <= maxMillis required");
+        this.initialMillis = initialMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+        delay = initialMillis;
+    }
+
+    /**
+     * Delay before the next attempt, ms
+     */
+    public synchronized long next() {
+        final long next = delay - (long) (random.nextDouble() * delay / 4);
+        delay = Math.min(delay * 2, maxMillis);
+        attempts++;
+        return next;
+    }
+
+    /**
+     * Starts over after a success
+     */
+    public synchronized void reset() {
+        delay = initialMillis;
+        attempts = 0;
+    }
+
+    /**
+     * Delays taken since the last reset
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+}
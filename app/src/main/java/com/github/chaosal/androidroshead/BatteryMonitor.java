@@ -0,0 +1,69 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Decides which battery broadcasts are worth publishing and when to ask for a charge.
+ * Status and health changes are published at once, level changes of at least a step
+ * no more often than the minimum interval. The low battery warning is given once when the level
+ * drops below the low threshold, repeated after the repeat interval and re-armed only after charging
+ * or rising above the re-arm threshold, so the level jittering around the threshold is not spoken.
+ */
+public class BatteryMonitor {
+
+    private final int levelStep;
+    private final long minIntervalMillis;
+    private final int lowLevel;
+    private final int rearmLevel;
+    private final long warningRepeatMillis;
+
+    private boolean published;
+    private int publishedLevel;
+    private boolean publishedCharging;
+    private int publishedHealth;
+    private long publishedAt;
+
+    private boolean armed = true;
+    private long warnedAt;
+
+    public BatteryMonitor(int levelStep, long minIntervalMillis, int lowLevel, int rearmLevel, long warningRepeatMillis) {
+        this.levelStep = levelStep;
+        this.minIntervalMillis = minIntervalMillis;
+        this.lowLevel = lowLevel;
+        this.rearmLevel = rearmLevel;
+        this.warningRepeatMillis = warningRepeatMillis;
+    }
+
+    /**
+     * @return true if the state must be published, it is remembered as published then
+     */
+    public synchronized boolean shouldPublish(int level, boolean charging, int health, long now) {
+        final boolean statusChanged = !published || charging != publishedCharging || health != publishedHealth;
+        final boolean levelChanged = Math.abs(level - publishedLevel) >= levelStep
+                && now - publishedAt >= minIntervalMillis;
+        if (!statusChanged && !levelChanged)
+            return false;
+        published = true;
+        publishedLevel = level;
+        publishedCharging = charging;
+        publishedHealth = health;
+        publishedAt = now;
+        return true;
+    }
+
+    /**
+     * @return true if the low battery warning must be spoken now
+     */
+    public synchronized boolean shouldWarn(int level, boolean charging, long now) {
+        if (charging || level >= rearmLevel) {
+            armed = true;
+            return false;
+        }
+        if (level >= lowLevel)
+            return false;
+        if (armed || now - warnedAt >= warningRepeatMillis) {
+            armed = false;
+            warnedAt = now;
+            return true;
+        }
+        return false;
+    }
+}
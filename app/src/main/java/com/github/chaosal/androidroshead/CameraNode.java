@@ -0,0 +1,418 @@
+package com.github.chaosal.androidroshead;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
+import android.hardware.Camera;
+import android.util.Log;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.DynamicChannelBuffer;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.topic.Publisher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Locale;
+
+import sensor_msgs.CameraInfo;
+import sensor_msgs.CompressedImage;
+
+
+/**
+ * Publishes camera preview frames as JPEG on /camera/image/compressed (sensor_msgs/CompressedImage),
+ * each with its size on /camera/camera_info (sensor_msgs/CameraInfo) under the same stamp.
+ * Preview size, frame rate and camera come from parameters. Frames are captured into a few reused callback
+ * buffers and compressed on an encoder thread; a frame the encoder has no time for is dropped, not queued,
+ * and so is a frame arriving while rosjava has not yet serialized the previous one.
+ * A still scene is published as rare keyframes, motion found by {@link MotionDetector} opens the full frame rate.
+ */
+public class CameraNode extends AbstractNodeMain {
+
+    public final static String TOPIC = "/camera/image/compressed";
+    public final static String INFO_TOPIC = "/camera/camera_info";
+    public final static String FRAME_ID = "camera";
+    public final static String PARAM_CAMERA = "~camera";
+    public final static String PARAM_WIDTH = "~width";
+    public final static String PARAM_HEIGHT = "~height";
+    public final static String PARAM_FPS = "~fps";
+    public final static String PARAM_JPEG_QUALITY = "~jpeg_quality";
+    public final static String PARAM_MOTION_THRESHOLD = "~motion_threshold";
+    public final static String PARAM_MOTION_HOLD = "~motion_hold";
+    public final static String PARAM_KEYFRAME_INTERVAL = "~keyframe_interval";
+    private final static String CONTEXT = "camera";
+    private final static int DEFAULT_WIDTH = 640;
+    private final static int DEFAULT_HEIGHT = 480;
+    private final static double DEFAULT_FPS = 10;
+    private final static int DEFAULT_JPEG_QUALITY = 70;
+    private final static double DEFAULT_MOTION_THRESHOLD = 0.02;//fraction of the frame
+    private final static double DEFAULT_MOTION_HOLD = 2;//s
+    private final static double DEFAULT_KEYFRAME_INTERVAL = 10;//s
+    private final static int MOTION_STEP = 8;//pixels
+    private final static int CALLBACK_BUFFERS = 3;//filled by the camera, waiting, being encoded
+    private final static int PREVIEW_TEXTURE = 10;//any name, the preview is not drawn
+    private final static long MAX_QUEUED_NANOS = 1000000000L;//a message not serialized by then is not waited for
+    private final static Metrics.Counter FRAMES = Metrics.counter("camera/frames");
+    private final static Metrics.Counter QUEUED = Metrics.counter("camera/queued");
+    private final static Metrics.Histogram ENCODING = Metrics.histogram("camera/encoding");
+
+    /**
+     * Camera facing, as in Camera.CameraInfo
+     */
+    public enum Facing {
+        BACK, FRONT
+    }
+
+    private static final class Frame {
+        final byte[] data;
+        YuvImage image;//wraps data, made by the encoder once
+        Time stamp;
+
+        Frame(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /**
+     * JPEG data of a message with the stream compressing into it, notes when rosjava reads it to serialize the message
+     */
+    private static final class SentBuffer extends DynamicChannelBuffer {
+        final ChannelBufferOutputStream out = new ChannelBufferOutputStream(this);
+        volatile boolean sent;
+
+        SentBuffer(int estimatedLength) {
+            super(ByteOrder.LITTLE_ENDIAN, estimatedLength);
+        }
+
+        @Override
+        public void getBytes(int index, byte[] dst, int dstIndex, int length) {
+            sent = true;
+            super.getBytes(index, dst, dstIndex, length);
+        }
+
+        @Override
+        public void getBytes(int index, ChannelBuffer dst, int dstIndex, int length) {
+            sent = true;
+            super.getBytes(index, dst, dstIndex, length);
+        }
+
+        @Override
+        public void getBytes(int index, ByteBuffer dst) {
+            sent = true;
+            super.getBytes(index, dst);
+        }
+
+        @Override
+        public ByteBuffer toByteBuffer(int index, int length) {
+            sent = true;
+            return super.toByteBuffer(index, length);
+        }
+
+        @Override
+        public ChannelBuffer copy(int index, int length) {
+            sent = true;
+            return super.copy(index, length);
+        }
+    }
+
+    private final Context context;
+    private Camera camera;
+    private SurfaceTexture previewTexture;
+    private Publisher<CompressedImage> publisher;
+    private MessageRing<CompressedImage> messages;
+    private Publisher<CameraInfo> infoPublisher;
+    private MessageRing<CameraInfo> infoMessages;
+    private FrameGate<Frame> gate;
+    private MotionDetector motionDetector;
+    private final Frame[] frames = new Frame[CALLBACK_BUFFERS];
+    private Thread encoder;
+
+    public CameraNode(Context applicationContext) {
+        this.context = applicationContext;
+    }
+
+    @Override
+    public GraphName getDefaultNodeName() {
+        return GraphName.of(context.getString(R.string.nodes_prefix) + "/camera");
+    }
+
+    @Override
+    public void onStart(final ConnectedNode connectedNode) {
+        super.onStart(connectedNode);
+        final ParameterTree params = connectedNode.getParameterTree();
+        final Facing facing = facing(params.getString(PARAM_CAMERA, Facing.BACK.name()));
+        final int width = params.getInteger(PARAM_WIDTH, DEFAULT_WIDTH);
+        final int height = params.getInteger(PARAM_HEIGHT, DEFAULT_HEIGHT);
+        final double fps = params.getDouble(PARAM_FPS, DEFAULT_FPS);
+        final int quality = params.getInteger(PARAM_JPEG_QUALITY, DEFAULT_JPEG_QUALITY);
+        final double motionThreshold = params.getDouble(PARAM_MOTION_THRESHOLD, DEFAULT_MOTION_THRESHOLD);
+        final double motionHold = params.getDouble(PARAM_MOTION_HOLD, DEFAULT_MOTION_HOLD);
+        final double keyframeInterval = params.getDouble(PARAM_KEYFRAME_INTERVAL, DEFAULT_KEYFRAME_INTERVAL);
+
+        final int id = findCamera(facing);
+        if (id < 0) {
+            Log.w(CONTEXT, "no camera");
+            return;
+        }
+        try {
+            camera = Camera.open(id);
+        } catch (RuntimeException e) {
+            Log.e(CONTEXT, "can't open camera " + id, e);
+            return;
+        }
+        final Camera.Parameters parameters = camera.getParameters();
+        final Camera.Size size = closestSize(parameters.getSupportedPreviewSizes(), width, height);
+        parameters.setPreviewSize(size.width, size.height);
+        final int[] fpsRange = closestFpsRange(parameters.getSupportedPreviewFpsRange(), fps);
+        if (fpsRange != null)
+            parameters.setPreviewFpsRange(fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        camera.setParameters(parameters);
+        final int format = parameters.getPreviewFormat();//NV21 unless changed, YuvImage takes it
+        Log.i(CONTEXT, String.format(Locale.US, "camera %d (%s) %dx%d, %.1f fps, jpeg quality %d",
+                id, facing, size.width, size.height, fps, quality));
+
+        publisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + TOPIC),
+                CompressedImage._TYPE);
+        messages = new MessageRing<>(publisher);
+        for (int i = 0; i < messages.size(); i++) {
+            final CompressedImage message = messages.get(i);
+            message.getHeader().setFrameId(FRAME_ID);
+            message.setFormat("jpeg");
+            //grows to the largest frame once, reused afterwards
+            message.setData(new SentBuffer(size.width * size.height / 4));
+        }
+        infoPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + INFO_TOPIC),
+                CameraInfo._TYPE);
+        infoMessages = new MessageRing<>(infoPublisher);
+        for (int i = 0; i < infoMessages.size(); i++) {
+            final CameraInfo info = infoMessages.get(i);
+            info.getHeader().setFrameId(FRAME_ID);
+            info.setWidth(size.width);
+            info.setHeight(size.height);
+        }
+        final FrameGate<Frame> gate = new FrameGate<>(fps);
+        this.gate = gate;
+        Metrics.gauge("camera/dropped", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return gate.getDropped();
+            }
+        });
+        Metrics.gauge("camera/over_rate", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return gate.getSkipped();
+            }
+        });
+        motionDetector = new MotionDetector(size.width, size.height, MOTION_STEP, motionThreshold,
+                (long) (motionHold * 1e9), (long) (keyframeInterval * 1e9));
+        encoder = new Thread(new Encoder(connectedNode, format, size.width, size.height, quality), "camera-encode");
+        encoder.setPriority(HeadScheduler.Lane.BACKGROUND.priority);//long encodes would hold up the lane itself
+        encoder.start();
+
+        final int bufferSize = size.width * size.height * ImageFormat.getBitsPerPixel(format) / 8;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Frame(bufferSize);
+            camera.addCallbackBuffer(frames[i].data);
+        }
+        camera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data, Camera camera) {
+                final Frame frame = frameOf(data);
+                if (frame == null)
+                    return;
+                final long now = System.nanoTime();
+                //nobody listens: nothing is compressed
+                final Frame recycled = publisher.getNumberOfSubscribers() == 0 || !motionDetector.accept(data, now)
+                        ? frame : gate.offer(stamp(frame, connectedNode), now);
+                if (recycled != null)
+                    camera.addCallbackBuffer(recycled.data);
+            }
+        });
+        try {
+            //preview needs a surface, a texture nobody draws keeps the node headless
+            previewTexture = new SurfaceTexture(PREVIEW_TEXTURE);
+            camera.setPreviewTexture(previewTexture);
+            camera.startPreview();
+        } catch (IOException e) {
+            Log.e(CONTEXT, "can't start camera preview", e);
+        }
+    }
+
+    private static Facing facing(String camera) {
+        try {
+            return Facing.valueOf(camera.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            Log.e(CONTEXT, "bad " + PARAM_CAMERA + " " + camera + ", using " + Facing.BACK);
+            return Facing.BACK;
+        }
+    }
+
+    private static Frame stamp(Frame frame, ConnectedNode connectedNode) {
+        frame.stamp = connectedNode.getCurrentTime();
+        return frame;
+    }
+
+    private Frame frameOf(byte[] data) {
+        for (Frame frame : frames)
+            if (frame.data == data)
+                return frame;
+        return null;
+    }
+
+    private static int findCamera(Facing facing) {
+        final int count = Camera.getNumberOfCameras();
+        final Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < count; i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == (facing == Facing.FRONT ? Camera.CameraInfo.CAMERA_FACING_FRONT
+                    : Camera.CameraInfo.CAMERA_FACING_BACK))
+                return i;
+        }
+        return count > 0 ? 0 : -1;
+    }
+
+    /**
+     * Supported preview size with the area closest to the requested one
+     */
+    private static Camera.Size closestSize(List<Camera.Size> sizes, int width, int height) {
+        Camera.Size best = null;
+        for (Camera.Size size : sizes)
+            if (best == null || Math.abs(size.width * size.height - width * height)
+                    < Math.abs(best.width * best.height - width * height))
+                best = size;
+        return best;
+    }
+
+    /**
+     * Narrowest supported range reaching fps, or the fastest one if none does. Frames above fps are skipped
+     * by the gate, a range starting low lets the camera expose longer in the dark.
+     */
+    private static int[] closestFpsRange(List<int[]> ranges, double fps) {
+        if (ranges == null)
+            return null;
+        final int target = (int) (fps * 1000);
+        int[] best = null;
+        for (int[] range : ranges) {
+            final int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (best == null) {
+                best = range;
+                continue;
+            }
+            final int bestMax = best[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (bestMax < target ? max > bestMax : max >= target && (max < bestMax || max == bestMax
+                    && range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] < best[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]))
+                best = range;
+        }
+        return best;
+    }
+
+    /**
+     * Compresses and publishes frames passed by the gate, then returns their buffers to the camera
+     */
+    private final class Encoder implements Runnable {
+        private final ConnectedNode connectedNode;
+        private final int format;
+        private final int width;
+        private final int height;
+        private final int quality;
+        private final Rect rect;
+        private SentBuffer published;
+        private long publishedAt;
+        private boolean tracking;//rosjava was seen reading a buffer, otherwise nothing is waited for
+
+        Encoder(ConnectedNode connectedNode, int format, int width, int height, int quality) {
+            this.connectedNode = connectedNode;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            rect = new Rect(0, 0, width, height);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Frame frame;
+                while ((frame = gate.take()) != null) {
+                    final long startedAt = System.nanoTime();
+                    if (published != null) {
+                        if (published.sent)
+                            tracking = true;
+                        else if (tracking && startedAt - publishedAt < MAX_QUEUED_NANOS) {
+                            camera.addCallbackBuffer(frame.data);//the subscriber is slower than the camera
+                            QUEUED.increment();
+                            continue;
+                        }
+                    }
+                    final CompressedImage message = messages.next();
+                    final SentBuffer data = (SentBuffer) message.getData();
+                    data.clear();
+                    data.sent = false;
+                    final boolean encoded;
+                    try {
+                        if (frame.image == null)
+                            frame.image = new YuvImage(frame.data, format, width, height, null);
+                        encoded = frame.image.compressToJpeg(rect, quality, data.out);
+                        message.getHeader().setStamp(frame.stamp);
+                    } finally {
+                        camera.addCallbackBuffer(frame.data);
+                    }
+                    if (encoded) {
+                        ENCODING.recordSince(startedAt);
+                        published = data;
+                        publishedAt = startedAt;
+                        publisher.publish(message);
+                        final CameraInfo info = infoMessages.next();
+                        info.getHeader().setStamp(message.getHeader().getStamp());
+                        infoPublisher.publish(info);
+                        FRAMES.increment();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                Log.e(CONTEXT, "camera encoder failed", e);
+                connectedNode.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public void onShutdown(Node node) {
+        super.onShutdown(node);
+        if (camera == null)
+            return;
+        camera.setPreviewCallbackWithBuffer(null);
+        camera.stopPreview();
+        gate.close();
+        try {
+            encoder.join();//the encoder returns its buffer to the camera
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        camera.release();
+        camera = null;
+        previewTexture.release();
+        Log.i(CONTEXT, String.format("frames published: %d, over the rate: %d, dropped: %d, motion: %d, keyframes: %d",
+                gate.getPassed(), gate.getSkipped(), gate.getDropped(),
+                motionDetector.getMotionFrames(), motionDetector.getKeyframes()));
+    }
+
+    @Override
+    public void onError(Node node, Throwable throwable) {
+        super.onError(node, throwable);
+        Log.e(CONTEXT, throwable.getMessage(), throwable);
+    }
+}
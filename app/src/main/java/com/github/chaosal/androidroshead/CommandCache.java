@@ -0,0 +1,232 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TTL cache of read-only command responses in front of a {@link CommandDispatcher.Transport}.
+ * Commands are keyed by normalised text. The TTL of a command is the one of the longest phrase it contains,
+ * commands without a TTL or with a non-cacheable word (actuators) always go to the service.
+ * A response older than its TTL but within the stale period is answered at once and refreshed in background,
+ * the refresh takes a slot of the dispatcher and is skipped while none is free.
+ */
+public class CommandCache implements CommandDispatcher.Transport {
+
+    /**
+     * Read-only queries of grammar.gram, seconds
+     */
+    public final static Map<String, Integer> DEFAULT_TTLS;
+    /**
+     * Actuator verbs and commands of grammar.gram
+     */
+    public final static Set<String> DEFAULT_NON_CACHEABLE;
+
+    static {
+        final Map<String, Integer> ttls = new LinkedHashMap<>();
+        ttls.put("сколько время", 20);
+        ttls.put("который час", 20);
+        ttls.put("новости", 600);
+        ttls.put("погоду", 600);
+        ttls.put("температура", 60);
+        ttls.put("температуру", 60);
+        ttls.put("статус", 10);
+        DEFAULT_TTLS = Collections.unmodifiableMap(ttls);
+        final Set<String> nonCacheable = new HashSet<>();
+        Collections.addAll(nonCacheable, "включи", "выключи", "выруби", "охрана", "охраняй");
+        DEFAULT_NON_CACHEABLE = Collections.unmodifiableSet(nonCacheable);
+    }
+
+    /**
+     * Source of entry times, replaced in tests
+     */
+    public interface Clock {
+        long millis();
+    }
+
+    public final static Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static final class Entry {
+        final String response;
+        final long time;
+
+        Entry(String response, long time) {
+            this.response = response;
+            this.time = time;
+        }
+    }
+
+    private final CommandDispatcher.Transport transport;
+    private final Map<String, Long> ttls = new HashMap<>();//phrase -> ms
+    private final Set<String> nonCacheable;
+    private final long staleMillis;
+    private final Clock clock;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Set<String> refreshing = new HashSet<>();
+    private volatile CommandDispatcher dispatcher;
+    private long hits;
+    private long staleHits;
+    private long misses;
+
+    /**
+     * @param ttls        phrase to TTL in seconds
+     * @param staleMillis how long an expired response may still be answered while it is refreshed
+     */
+    public CommandCache(CommandDispatcher.Transport transport, Map<String, ? extends Number> ttls,
+                        Collection<String> nonCacheable, long staleMillis) {
+        this(transport, ttls, nonCacheable, staleMillis, SYSTEM_CLOCK);
+    }
+
+    public CommandCache(CommandDispatcher.Transport transport, Map<String, ? extends Number> ttls,
+                        Collection<String> nonCacheable, long staleMillis, Clock clock) {
+        this.transport = transport;
+        for (Map.Entry<String, ? extends Number> ttl : ttls.entrySet())
+            this.ttls.put(normalise(ttl.getKey()), ttl.getValue().longValue() * 1000);
+        this.nonCacheable = new HashSet<>(nonCacheable);
+        this.staleMillis = staleMillis;
+        this.clock = clock;
+    }
+
+    public static String normalise(String command) {
+        return command.trim().toLowerCase(new Locale("ru")).replaceAll("\\s+", " ");
+    }
+
+    @Override
+    public void call(String command, final CommandDispatcher.Callback callback) throws Exception {
+        final String key = normalise(command);
+        final long ttl = ttl(key);
+        if (ttl <= 0) {
+            transport.call(command, callback);
+            return;
+        }
+        final long now = clock.millis();
+        final Entry entry;
+        boolean refresh = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && now - entry.time < ttl)
+                hits++;
+            else if (entry != null && now - entry.time < ttl + staleMillis) {
+                staleHits++;
+                refresh = refreshing.add(key);
+            } else
+                misses++;
+        }
+        if (entry != null && now - entry.time < ttl + staleMillis) {
+            callback.onResponse(entry.response);
+            if (refresh)
+                refresh(command, key);
+            return;
+        }
+        transport.call(command, new CommandDispatcher.Callback() {
+            @Override
+            public void onResponse(String response) {
+                put(key, response);
+                callback.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public void reset() {
+        transport.reset();
+    }
+
+    /**
+     * The dispatcher in front of the cache, background refreshes are admitted by it
+     */
+    public void setDispatcher(CommandDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getStaleHits() {
+        synchronized (entries) {
+            return staleHits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    private void refresh(String command, final String key) {
+        final CommandDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null && !dispatcher.tryAcquire()) {
+            synchronized (entries) {
+                refreshing.remove(key);//the next stale hit tries again
+            }
+            return;
+        }
+        final CommandDispatcher.Callback callback = new CommandDispatcher.Callback() {
+            @Override
+            public void onResponse(String response) {
+                put(key, response);
+                done();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                done();
+            }
+
+            private void done() {
+                synchronized (entries) {
+                    refreshing.remove(key);
+                }
+                if (dispatcher != null)
+                    dispatcher.release();
+            }
+        };
+        try {
+            transport.call(command, callback);
+        } catch (Exception e) {
+            callback.onFailure(e);
+        }
+    }
+
+    private void put(String key, String response) {
+        synchronized (entries) {
+            entries.put(key, new Entry(response, clock.millis()));
+        }
+    }
+
+    private long ttl(String key) {
+        final String[] words = key.split(" ");
+        for (String word : words)
+            if (nonCacheable.contains(word))
+                return 0;
+        long ttl = 0;
+        int length = 0;
+        final String padded = " " + key + " ";
+        for (Map.Entry<String, Long> phrase : ttls.entrySet()) {
+            if (phrase.getKey().length() > length && padded.contains(" " + phrase.getKey() + " ")) {
+                ttl = phrase.getValue();
+                length = phrase.getKey().length();
+            }
+        }
+        return ttl;
+    }
+}
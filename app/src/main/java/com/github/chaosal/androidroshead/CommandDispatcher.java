@@ -0,0 +1,222 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends recognised commands to the command service with bounded latency:
+ * at most maxInFlight calls at a time, every call is answered by its deadline (with the timeout
+ * response if the service is slow), identical commands within the dedup window are sent once.
+ * A call keeps its slot until the transport completes it, a timed out one resets the transport.
+ * A call the transport fails with a {@link TimeoutException} is answered as a timeout.
+ */
+public class CommandDispatcher {
+
+    /**
+     * Connection to the command service
+     */
+    public interface Transport {
+        /**
+         * Starts an asynchronous call, exactly one callback method must be called eventually
+         *
+         * @throws Exception if the call can't be started, e.g. the service is not available
+         */
+        void call(String command, Callback callback) throws Exception;
+
+        /**
+         * Called when a call passed its deadline: the connection is assumed stuck and new calls should not use it,
+         * calls in flight on it still get their callback, a response or a failure by their own deadline,
+         * so their slots are released
+         */
+        void reset();
+    }
+
+    public interface Callback {
+        void onResponse(String response);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Receives the text to be spoken for every dispatched command
+     */
+    public interface ResponseListener {
+        void onResponse(String command, String response);
+
+        void onError(String command, Exception e);
+    }
+
+    private final static Metrics.Histogram ROUND_TRIP = Metrics.histogram("speech/command_round_trip");
+    private final static Metrics.Counter TIMEOUTS = Metrics.counter("speech/command_timeouts");
+    private final static Metrics.Counter FAILURES = Metrics.counter("speech/command_failures");
+    private final static Metrics.Counter DROPPED = Metrics.counter("speech/commands_dropped");
+
+    private final Transport transport;
+    private final ScheduledExecutorService executor;
+    private final ResponseListener listener;
+    private final int maxInFlight;
+    private final long deadlineMillis;
+    private final long dedupWindowMillis;
+    private final String timeoutResponse;
+    private final String failureResponse;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, Long> dispatched = new HashMap<>();
+    private long rejected;
+    private long timeouts;
+
+    public CommandDispatcher(Transport transport, ScheduledExecutorService executor, ResponseListener listener,
+                             int maxInFlight, long deadlineMillis, long dedupWindowMillis,
+                             String timeoutResponse, String failureResponse) {
+        this.transport = transport;
+        this.executor = executor;
+        this.listener = listener;
+        this.maxInFlight = maxInFlight;
+        this.deadlineMillis = deadlineMillis;
+        this.dedupWindowMillis = dedupWindowMillis;
+        this.timeoutResponse = timeoutResponse;
+        this.failureResponse = failureResponse;
+    }
+
+    /**
+     * @return false if the command was dropped as a duplicate or because too many calls are in flight
+     */
+    public boolean dispatch(final String command) {
+        final long now = System.currentTimeMillis();
+        synchronized (dispatched) {
+            final Iterator<Long> times = dispatched.values().iterator();
+            while (times.hasNext())
+                if (now - times.next() >= dedupWindowMillis)
+                    times.remove();
+            if (dispatched.containsKey(command)) {
+                rejected++;
+                DROPPED.increment();
+                return false;
+            }
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                rejected++;
+                DROPPED.increment();
+                return false;
+            }
+            dispatched.put(command, now);
+        }
+
+        final long sentAt = System.nanoTime();
+        FlightRecorder.record(FlightRecorder.COMMAND_REQUEST, inFlight.get(), 0, 0, 0, command);
+        final AtomicBoolean answered = new AtomicBoolean();
+        final AtomicBoolean completed = new AtomicBoolean();
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (answered.compareAndSet(false, true)) {
+                    synchronized (dispatched) {
+                        timeouts++;
+                    }
+                    TIMEOUTS.increment();
+                    recordResponse(sentAt, FlightRecorder.RESPONSE_TIMEOUT, timeoutResponse);
+                    listener.onResponse(command, timeoutResponse);
+                    transport.reset();
+                }
+            }
+        };
+        final ScheduledFuture<?> deadline = executor.schedule(timeout, deadlineMillis, TimeUnit.MILLISECONDS);
+        final Callback callback = new Callback() {
+            @Override
+            public void onResponse(String response) {
+                if (!complete())
+                    return;
+                if (answered.compareAndSet(false, true)) {
+                    ROUND_TRIP.recordSince(sentAt);
+                    recordResponse(sentAt, FlightRecorder.RESPONSE_ANSWERED, response);
+                    listener.onResponse(command, response);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (!complete())
+                    return;
+                if (e instanceof TimeoutException) {//the transport gave up first
+                    timeout.run();
+                    return;
+                }
+                if (answered.compareAndSet(false, true)) {
+                    synchronized (dispatched) {
+                        dispatched.remove(command);//may be retried at once
+                    }
+                    FAILURES.increment();
+                    recordResponse(sentAt, FlightRecorder.RESPONSE_FAILED, failureResponse);
+                    listener.onError(command, e);
+                    listener.onResponse(command, failureResponse);
+                }
+            }
+
+            /**
+             * Releases the slot once, late completions of timed out calls included
+             */
+            private boolean complete() {
+                if (!completed.compareAndSet(false, true))
+                    return false;
+                deadline.cancel(false);
+                inFlight.decrementAndGet();
+                return true;
+            }
+        };
+        try {
+            transport.call(command, callback);
+        } catch (Exception e) {
+            callback.onFailure(e);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a slot for a background call the dispatcher doesn't answer, e.g. a cache refresh,
+     * so it counts against maxInFlight like a dispatched command
+     *
+     * @return false if too many calls are in flight, the call should not be made then
+     */
+    public boolean tryAcquire() {
+        synchronized (dispatched) {
+            if (inFlight.incrementAndGet() <= maxInFlight)
+                return true;
+            inFlight.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Releases a slot taken with {@link #tryAcquire()} once the background call completed
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private static void recordResponse(long sentAt, int outcome, String response) {
+        FlightRecorder.record(FlightRecorder.COMMAND_RESPONSE, (System.nanoTime() - sentAt) / 1e6f, outcome, 0, 0,
+                response);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        synchronized (dispatched) {
+            return rejected;
+        }
+    }
+
+    public long getTimeouts() {
+        synchronized (dispatched) {
+            return timeouts;
+        }
+    }
+}
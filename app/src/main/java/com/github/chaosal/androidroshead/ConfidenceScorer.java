@@ -0,0 +1,86 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Confidence of recognizer hypotheses calibrated on the room they are heard in.
+ * The decoder score is normalised by utterance length, so long commands are not penalised, and compared with
+ * two rolling estimates: the noise floor (mean frame score of rejected hypotheses) and the signal level
+ * (mean frame score of accepted ones). The threshold sits between them once both have enough history,
+ * until then the initial threshold is used.
+ */
+public class ConfidenceScorer {
+
+    private final static double MIN_SPREAD = 1;
+
+    private final double alpha;
+    private final int warmup;
+    private final double minConfidence;
+    private double threshold;
+    private double spread;
+    private double noiseFloor;
+    private double signalLevel;
+    private int noiseSamples;
+    private int signalSamples;
+
+    /**
+     * @param initialThreshold frame score of 0.5 confidence before tuning
+     * @param initialSpread    frame score difference from the threshold giving 0.73 confidence
+     * @param alpha            weight of a new sample in the rolling estimates
+     * @param warmup           samples of both kinds needed before the threshold is tuned
+     * @param minConfidence    confidence a hypothesis needs to be accepted
+     */
+    public ConfidenceScorer(double initialThreshold, double initialSpread, double alpha, int warmup, double minConfidence) {
+        if (initialSpread <= 0 || alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("spread must be positive and alpha within (0, 1]");
+        this.threshold = initialThreshold;
+        this.spread = initialSpread;
+        this.alpha = alpha;
+        this.warmup = warmup;
+        this.minConfidence = minConfidence;
+    }
+
+    /**
+     * Decoder score per frame, scores are negative logarithms so higher is better
+     */
+    public static double frameScore(int score, int frames) {
+        return (double) score / Math.max(frames, 1);
+    }
+
+    public synchronized double confidence(double frameScore) {
+        return 1 / (1 + Math.exp((threshold - frameScore) / spread));
+    }
+
+    public boolean isAccepted(double confidence) {
+        return confidence >= minConfidence;
+    }
+
+    /**
+     * Adds a hypothesis to the history
+     *
+     * @param accepted the hypothesis turned out right (e.g. a command was answered) or wrong
+     */
+    public synchronized void feedback(double frameScore, boolean accepted) {
+        if (accepted) {
+            signalLevel = signalSamples == 0 ? frameScore : signalLevel + alpha * (frameScore - signalLevel);
+            signalSamples++;
+        } else {
+            noiseFloor = noiseSamples == 0 ? frameScore : noiseFloor + alpha * (frameScore - noiseFloor);
+            noiseSamples++;
+        }
+        if (signalSamples < warmup || noiseSamples < warmup || signalLevel <= noiseFloor)
+            return;
+        threshold = (noiseFloor + signalLevel) / 2;
+        spread = Math.max(MIN_SPREAD, (signalLevel - noiseFloor) / 4);
+    }
+
+    public synchronized double getThreshold() {
+        return threshold;
+    }
+
+    public synchronized double getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    public synchronized double getSignalLevel() {
+        return signalLevel;
+    }
+}
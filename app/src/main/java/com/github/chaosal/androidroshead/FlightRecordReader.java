@@ -0,0 +1,136 @@
+package com.github.chaosal.androidroshead;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decodes a {@link FlightRecorder} file or dump into records ordered as they were written.
+ * Runs on a desktop JVM: {@code java FlightRecordReader flight.rec} prints one tab separated line per record.
+ */
+public class FlightRecordReader {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static String[] TYPES = {"unknown", "orientation", "battery", "wake_word", "command_hypothesis",
+            "command_request", "command_response", "tts_start", "tts_stop"};
+
+    public static final class Record {
+        private final long sequence;
+        private final long timeMillis;
+        private final byte type;
+        private final float[] values;
+        private final String text;
+
+        Record(long sequence, long timeMillis, byte type, float[] values, String text) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.type = type;
+            this.values = values;
+            this.text = text;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /**
+         * One of the FlightRecorder record types
+         */
+        public byte getType() {
+            return type;
+        }
+
+        public String getTypeName() {
+            return type > 0 && type < TYPES.length ? TYPES[type] : TYPES[0];
+        }
+
+        public float getValue(int index) {
+            return values[index];
+        }
+
+        /**
+         * Empty if the record has no text
+         */
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d\t%s\t%s\t%g\t%g\t%g\t%g\t%s", sequence,
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date(timeMillis)),
+                    getTypeName(), values[0], values[1], values[2], values[3], text);
+        }
+    }
+
+    private FlightRecordReader() {
+    }
+
+    public static List<Record> read(File file) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            return read(bytes);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return complete records by sequence, torn and empty slots are skipped
+     */
+    public static List<Record> read(byte[] bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < FlightRecorder.HEADER_SIZE || buffer.getInt(0) != FlightRecorder.MAGIC)
+            throw new IOException("not a flight record");
+        if (buffer.getInt(4) != FlightRecorder.VERSION || buffer.getInt(8) != FlightRecorder.RECORD_SIZE)
+            throw new IOException("unsupported flight record version " + buffer.getInt(4));
+        final int records = Math.min(buffer.getInt(12),
+                (bytes.length - FlightRecorder.HEADER_SIZE) / FlightRecorder.RECORD_SIZE);
+        final List<Record> result = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            final int offset = FlightRecorder.HEADER_SIZE + i * FlightRecorder.RECORD_SIZE;
+            final long sequence = buffer.getLong(offset);
+            if (sequence == 0 || buffer.getLong(offset + FlightRecorder.RECORD_SIZE - 8) != sequence)
+                continue;
+            final float[] values = new float[4];
+            for (int v = 0; v < values.length; v++)
+                values[v] = buffer.getFloat(offset + 20 + v * 4);
+            final int textLength = Math.min(buffer.get(offset + 17) & 0xFF, FlightRecorder.TEXT_SIZE);
+            result.add(new Record(sequence, buffer.getLong(offset + 8), buffer.get(offset + 16), values,
+                    new String(bytes, offset + FlightRecorder.TEXT_OFFSET, textLength, UTF8)));
+        }
+        Collections.sort(result, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+            }
+        });
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: FlightRecordReader <flight record file>");
+            System.exit(1);
+        }
+        System.out.println("sequence\ttime\ttype\tv0\tv1\tv2\tv3\ttext");
+        for (Record record : read(new File(args[0])))
+            System.out.println(record);
+    }
+}
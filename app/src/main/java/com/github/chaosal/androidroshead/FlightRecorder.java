@@ -0,0 +1,172 @@
+package com.github.chaosal.androidroshead;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size ring of events in a memory-mapped file, kept by the kernel across crashes of the app.
+ * Records are fixed {@link #RECORD_SIZE} byte slots: sequence, wall time, type, four values and a short text,
+ * the sequence is repeated at the end of the slot so a reader can tell a torn record. Writers claim slots with
+ * an atomic counter and never block or allocate. Decoded by {@link FlightRecordReader}.
+ * <p>
+ * Nodes record through the static {@link #record} methods, which do nothing until a recorder is installed.
+ */
+public class FlightRecorder {
+
+    public final static int MAGIC = 0x46524543;//FREC
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 64;
+    public final static int RECORD_SIZE = 128;
+    public final static int TEXT_OFFSET = 36;
+    public final static int TEXT_SIZE = RECORD_SIZE - 8 - TEXT_OFFSET;
+    public final static int DEFAULT_RECORDS = 32768;//4 MB
+
+    //record types
+    public final static byte ORIENTATION = 1;//w, x, y, z
+    public final static byte BATTERY = 2;//percentage, voltage mV, temperature C, plugged 0/1
+    public final static byte WAKE_WORD = 3;//score, frame score, confidence, accepted 0/1; hypothesis
+    public final static byte COMMAND_HYPOTHESIS = 4;//score, frames, confidence, accepted 0/1; hypothesis
+    public final static byte COMMAND_REQUEST = 5;//in flight; command
+    public final static byte COMMAND_RESPONSE = 6;//latency ms, RESPONSE_*; response
+    public final static byte TTS_START = 7;//queued; text
+    public final static byte TTS_STOP = 8;//duration ms
+
+    public final static int RESPONSE_ANSWERED = 0;
+    public final static int RESPONSE_TIMEOUT = 1;
+    public final static int RESPONSE_FAILED = 2;
+
+    private static volatile FlightRecorder installed;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int records;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Opens or creates the recorder file, records of a file with the same layout are kept
+     */
+    public FlightRecorder(File path, int records) throws IOException {
+        this.records = records;
+        file = new RandomAccessFile(path, "rw");
+        try {
+            final long size = HEADER_SIZE + (long) records * RECORD_SIZE;
+            final boolean compatible = file.length() == size;
+            if (!compatible)
+                file.setLength(0);
+            file.setLength(size);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == RECORD_SIZE) {
+            long last = 0;
+            for (int i = 0; i < records; i++)
+                last = Math.max(last, buffer.getLong(HEADER_SIZE + i * RECORD_SIZE));
+            sequence.set(last);//continues after the records of the previous run
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, records);
+        }
+    }
+
+    /**
+     * Makes the recorder the target of the static record methods, null to stop recording
+     */
+    public static void install(FlightRecorder recorder) {
+        installed = recorder;
+    }
+
+    public static void record(byte type, float v0, float v1, float v2, float v3, CharSequence text) {
+        final FlightRecorder recorder = installed;
+        if (recorder != null)
+            recorder.write(type, v0, v1, v2, v3, text);
+    }
+
+    public static void record(byte type, float v0, float v1, float v2, float v3) {
+        record(type, v0, v1, v2, v3, null);
+    }
+
+    /**
+     * Writes a record, text is cut to {@link #TEXT_SIZE} bytes of UTF-8
+     */
+    public void write(byte type, float v0, float v1, float v2, float v3, CharSequence text) {
+        final long seq = sequence.incrementAndGet();
+        final int offset = HEADER_SIZE + (int) ((seq - 1) % records) * RECORD_SIZE;
+        buffer.putLong(offset, seq);
+        buffer.putLong(offset + RECORD_SIZE - 8, 0);//torn until written
+        buffer.putLong(offset + 8, System.currentTimeMillis());
+        buffer.put(offset + 16, type);
+        buffer.putFloat(offset + 20, v0);
+        buffer.putFloat(offset + 24, v1);
+        buffer.putFloat(offset + 28, v2);
+        buffer.putFloat(offset + 32, v3);
+        buffer.put(offset + 17, (byte) (text == null ? 0 : putUtf8(text, offset + TEXT_OFFSET)));
+        buffer.putLong(offset + RECORD_SIZE - 8, seq);
+    }
+
+    /**
+     * Encodes whole characters that fit in the text field
+     *
+     * @return bytes written
+     */
+    private int putUtf8(CharSequence text, int offset) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                if (length + 1 > TEXT_SIZE)
+                    break;
+                buffer.put(offset + length++, (byte) c);
+            } else if (c < 0x800) {
+                if (length + 2 > TEXT_SIZE)
+                    break;
+                buffer.put(offset + length++, (byte) (0xC0 | c >> 6));
+                buffer.put(offset + length++, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()) {
+                if (length + 4 > TEXT_SIZE)
+                    break;
+                final int code = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put(offset + length++, (byte) (0xF0 | code >> 18));
+                buffer.put(offset + length++, (byte) (0x80 | code >> 12 & 0x3F));
+                buffer.put(offset + length++, (byte) (0x80 | code >> 6 & 0x3F));
+                buffer.put(offset + length++, (byte) (0x80 | code & 0x3F));
+            } else {
+                if (length + 3 > TEXT_SIZE)
+                    break;
+                buffer.put(offset + length++, (byte) (0xE0 | c >> 12));
+                buffer.put(offset + length++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(offset + length++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Copy of the whole file for a dump, records written meanwhile may come out torn and are skipped by the reader
+     */
+    public byte[] snapshot() {
+        final byte[] copy = new byte[buffer.capacity()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    public long getRecordsWritten() {
+        return sequence.get();
+    }
+
+    public void close() throws IOException {
+        if (installed == this)
+            installed = null;
+        buffer.force();
+        file.close();
+    }
+}
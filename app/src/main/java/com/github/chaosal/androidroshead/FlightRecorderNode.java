@@ -0,0 +1,102 @@
+package com.github.chaosal.androidroshead;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageListener;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * Dumps the installed {@link FlightRecorder} on request: a message on ~/flight_recorder/dump (std_msgs/Empty)
+ * saves a copy of the recorder file to the app's external files and publishes it on ~/flight_recorder
+ * (std_msgs/UInt8MultiArray) for {@link FlightRecordReader}. Dumps are made on the background lane.
+ */
+public class FlightRecorderNode extends AbstractNodeMain {
+
+    public final static String TOPIC = "/flight_recorder";
+    public final static String DUMP_TOPIC = "/flight_recorder/dump";
+    private final static String CONTEXT = "flight_recorder";
+
+    private final Context context;
+    private final FlightRecorder recorder;
+    private final HeadScheduler scheduler;
+    private Publisher<std_msgs.UInt8MultiArray> publisher;
+    private Subscriber<std_msgs.Empty> dumpSubscriber;
+
+    public FlightRecorderNode(Context applicationContext, FlightRecorder recorder, HeadScheduler scheduler) {
+        this.context = applicationContext;
+        this.recorder = recorder;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public GraphName getDefaultNodeName() {
+        return GraphName.of(context.getString(R.string.nodes_prefix) + "/flight_recorder");
+    }
+
+    @Override
+    public void onStart(ConnectedNode connectedNode) {
+        super.onStart(connectedNode);
+        final String prefix = context.getString(R.string.nodes_prefix);
+        publisher = connectedNode.newPublisher(GraphName.of(prefix + TOPIC), std_msgs.UInt8MultiArray._TYPE);
+        publisher.setLatchMode(true);//the dump may be asked for before subscribing
+        dumpSubscriber = connectedNode.newSubscriber(prefix + DUMP_TOPIC, std_msgs.Empty._TYPE);
+        dumpSubscriber.addMessageListener(new MessageListener<std_msgs.Empty>() {
+            @Override
+            public void onNewMessage(std_msgs.Empty message) {
+                scheduler.executor(HeadScheduler.Lane.BACKGROUND).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        dump();
+                    }
+                });
+            }
+        });
+    }
+
+    private void dump() {
+        final byte[] snapshot = recorder.snapshot();
+        final File dir = context.getExternalFilesDir("flight");
+        if (dir != null) {
+            final File file = new File(dir, "flight-" + System.currentTimeMillis() + ".rec");
+            try {
+                final FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(snapshot);
+                } finally {
+                    out.close();
+                }
+                Log.i(CONTEXT, "dumped " + recorder.getRecordsWritten() + " records to " + file);
+            } catch (IOException e) {
+                Log.e(CONTEXT, "can't save dump to " + file, e);
+            }
+        }
+        final std_msgs.UInt8MultiArray message = publisher.newMessage();
+        message.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, snapshot));
+        publisher.publish(message);
+    }
+
+    @Override
+    public void onShutdown(Node node) {
+        super.onShutdown(node);
+        if (dumpSubscriber != null)
+            dumpSubscriber.shutdown();
+    }
+
+    @Override
+    public void onError(Node node, Throwable throwable) {
+        super.onError(node, throwable);
+        Log.e(CONTEXT, throwable.getMessage(), throwable);
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Hands camera frames to a single consumer (the encoder) at most at a given rate, never buffering more than one.
+ * A frame arriving while the previous one still waits replaces it: when encoding or publishing falls behind
+ * the stale frame is dropped instead of queueing. Frames are pooled buffers, whatever is not handed over is
+ * returned by {@link #offer} for reuse.
+ */
+public class FrameGate<T> {
+
+    private final long intervalNanos;
+    private long nextDue;
+    private boolean started;
+    private T pending;
+    private boolean closed;
+    private long passed;
+    private long skipped;
+    private long dropped;
+
+    /**
+     * @param maxRate frames per second, 0 for no limit
+     */
+    public FrameGate(double maxRate) {
+        if (maxRate < 0)
+            throw new IllegalArgumentException("maxRate must not be negative");
+        intervalNanos = maxRate == 0 ? 0 : (long) (1e9 / maxRate);
+    }
+
+    /**
+     * Offers a frame captured at nanos (monotonic clock)
+     *
+     * @return a frame to recycle: this one if it came too early or the gate is closed, the replaced one if
+     * the consumer fell behind, null if nothing is left over
+     */
+    public synchronized T offer(T frame, long nanos) {
+        if (closed)
+            return frame;
+        if (started && nanos < nextDue) {
+            skipped++;
+            return frame;
+        }
+        //keeps the phase of a steady camera, a frame late by a whole interval restarts it instead of causing a burst
+        nextDue = started && nanos - nextDue < intervalNanos ? nextDue + intervalNanos : nanos + intervalNanos;
+        started = true;
+        final T replaced = pending;
+        if (replaced != null)
+            dropped++;
+        pending = frame;
+        notifyAll();
+        return replaced;
+    }
+
+    /**
+     * Waits for the next frame, the consumer recycles it when done
+     *
+     * @return null once the gate is closed
+     */
+    public synchronized T take() throws InterruptedException {
+        while (pending == null && !closed)
+            wait();
+        final T frame = pending;
+        pending = null;
+        if (frame != null)
+            passed++;
+        return frame;
+    }
+
+    /**
+     * Wakes up the consumer and rejects further frames
+     *
+     * @return the frame left waiting, to recycle, or null
+     */
+    public synchronized T close() {
+        closed = true;
+        final T frame = pending;
+        pending = null;
+        notifyAll();
+        return frame;
+    }
+
+    /**
+     * Frames taken by the consumer
+     */
+    public synchronized long getPassed() {
+        return passed;
+    }
+
+    /**
+     * Frames over the rate limit
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Frames replaced before the consumer took them
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -1,47 +1,92 @@
 package com.github.chaosal.androidroshead;
 
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Speaking/listening state of the head shared between nodes.
+ * The state is a single atomic word of flags (IDLE when none is set) updated from node callbacks,
+ * reads are one volatile load. Observers are notified on every transition with the state it resulted in.
+ */
 public class GlobalState {
 
-    private static final int SILENCE_FROM_HOURS = 22;
-    private static final int SILENCE_TO_HOURS = 9;
-    private boolean speaking;
-    private boolean listening;
-    private StateResolver<Boolean> speakingResolver;
+    public final static int IDLE = 0;
+    public final static int LISTENING = 1;
+    public final static int SPEAKING = 1 << 1;
+    public final static int MUTED = 1 << 2;
 
-    public synchronized boolean isSpeaking() {
-        return speaking | (speakingResolver != null && speakingResolver.getState());
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final CopyOnWriteArrayList<StateObserver> observers = new CopyOnWriteArrayList<>();
+    private volatile QuietHours quietHours = QuietHours.parse(QuietHours.DEFAULT, TimeZone.getDefault());
+
+    public interface StateObserver {
+        /**
+         * Called on the thread that made the transition, transitions made on different threads
+         * may be delivered out of order: act on the state, re-read it if in doubt, not on the change
+         */
+        void onStateChanged(int state);
+    }
+
+    public int getState() {
+        return state.get();
+    }
+
+    public boolean isSpeaking() {
+        return (state.get() & SPEAKING) != 0;
+    }
+
+    public boolean isListening() {
+        return (state.get() & LISTENING) != 0;
+    }
+
+    public boolean isMuted() {
+        return (state.get() & MUTED) != 0;
+    }
+
+    public void setSpeaking(boolean speaking) {
+        update(SPEAKING, speaking);
+    }
+
+    public void setListening(boolean listening) {
+        update(LISTENING, listening);
     }
 
-    public synchronized boolean isListening() {
-        return listening;
+    public void setMuted(boolean muted) {
+        update(MUTED, muted);
     }
 
-    public synchronized void setSpeaking(boolean speaking) {
-        this.speaking = speaking;
+    public void addObserver(StateObserver observer) {
+        observers.addIfAbsent(observer);
     }
 
-    public synchronized void setListening(boolean listening) {
-        this.listening = listening;
+    public void removeObserver(StateObserver observer) {
+        observers.remove(observer);
     }
 
-    public interface StateResolver<T> {
-        T getState();
+    private void update(int flag, boolean set) {
+        int previous;
+        int current;
+        do {
+            previous = state.get();
+            current = set ? previous | flag : previous & ~flag;
+            if (previous == current)
+                return;
+        } while (!state.compareAndSet(previous, current));
+        for (StateObserver observer : observers)
+            observer.onStateChanged(current);
     }
 
-    public synchronized void setSpeakingStateResolver(StateResolver<Boolean> resolver) {
-        this.speakingResolver = resolver;
+    public void setQuietHours(QuietHours quietHours) {
+        this.quietHours = quietHours;
     }
 
+    /**
+     * @return false during quiet hours, allocation free between schedule transitions
+     */
     public boolean canNotify()
     {
-        final Calendar cal = GregorianCalendar.getInstance();
-        cal.setTime(new Date());
-        final int hour = cal.get(Calendar.HOUR);
-        return hour < SILENCE_FROM_HOURS && hour >= SILENCE_TO_HOURS;
+        return !quietHours.isQuiet(System.currentTimeMillis());
     }
 
 }
@@ -0,0 +1,168 @@
+package com.github.chaosal.androidroshead;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.FsgModel;
+import edu.cmu.pocketsphinx.Jsgf;
+import edu.cmu.pocketsphinx.JsgfRule;
+
+/**
+ * Grammar and dictionary updates received at runtime.
+ * Grammars are compiled to FSG on a background executor and cached by content hash as searches named after it,
+ * so pushing a known grammar again costs nothing. Updates are applied by {@link #apply(Decoder)} between
+ * utterances, when the decoder is stopped, switching the grammar search at once.
+ */
+public class GrammarUpdater {
+
+    private final static String CONTEXT = GrammarUpdater.class.getSimpleName();
+    private final static String SEARCH_PREFIX = "grammar_";
+    private final static float LANGUAGE_WEIGHT = 7.0f;
+
+    private static final class Compiled {
+        final String search;
+        final FsgModel fsg;//null if the search exists already
+
+        Compiled(String search, FsgModel fsg) {
+            this.search = search;
+            this.fsg = fsg;
+        }
+    }
+
+    private final File dir;
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<String[]> words = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Compiled> pending = new AtomicReference<>();
+    private final AtomicReference<File> installed = new AtomicReference<>();
+    private final String defaultSearch;
+    private volatile String search;
+
+    /**
+     * @param dir           where received grammars are stored
+     * @param defaultSearch search used until a grammar is received, unless the shared recognizer
+     *                      was switched to another one before a node restart
+     */
+    public GrammarUpdater(File dir, ExecutorService executor, String defaultSearch) {
+        this.dir = dir;
+        this.executor = executor;
+        this.defaultSearch = defaultSearch;
+        final String active = SharedRecognizer.getGrammarSearch();
+        this.search = active != null ? active : defaultSearch;
+    }
+
+    /**
+     * Current grammar search name
+     */
+    public String getSearch() {
+        return search;
+    }
+
+    /**
+     * Whether the current grammar search was added to the decoder
+     */
+    public boolean isReady() {
+        return SharedRecognizer.hasSearch(search);
+    }
+
+    /**
+     * Queues the installed grammar file of the default search
+     */
+    public void installDefault(File grammar) {
+        installed.set(grammar);
+    }
+
+    /**
+     * Queues dictionary entries, one per line: word and its phones
+     */
+    public void updateDictionary(String dictionary) {
+        for (String line : dictionary.split("\n")) {
+            final String[] fields = line.trim().split("\\s+", 2);
+            if (fields.length == 2)
+                words.add(fields);
+        }
+    }
+
+    /**
+     * Compiles JSGF grammar in background, its first public rule is the search
+     */
+    public void updateGrammar(final String grammar, final Decoder decoder) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pending.set(compile(grammar, decoder));
+                } catch (IOException | RuntimeException e) {
+                    Log.e(CONTEXT, "can't compile grammar", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies queued updates, must be called while the decoder is stopped
+     */
+    public void apply(Decoder decoder) {
+        String[] word;
+        while ((word = words.poll()) != null) {
+            if (word[1].equals(decoder.lookupWord(word[0])))
+                continue;
+            decoder.addWord(word[0], word[1], words.isEmpty() ? 1 : 0);//rebuild searches after the last word only
+        }
+        final File grammar = installed.getAndSet(null);
+        if (grammar != null)
+            SharedRecognizer.addGrammarSearch(defaultSearch, grammar);
+        if (!search.equals(defaultSearch) && !SharedRecognizer.hasSearch(search))
+            search = defaultSearch;//the recognizer was created again after the restore
+        final Compiled compiled = pending.getAndSet(null);
+        if (compiled == null)
+            return;
+        if (compiled.fsg != null)
+            SharedRecognizer.setFsgSearch(compiled.search, compiled.fsg);
+        search = compiled.search;
+        SharedRecognizer.setGrammarSearch(search);
+        Log.i(CONTEXT, "switched to " + search);
+    }
+
+    private Compiled compile(String grammar, Decoder decoder) throws IOException {
+        final String name = SEARCH_PREFIX + hash(grammar);
+        if (SharedRecognizer.hasSearch(name))
+            return new Compiled(name, null);
+
+        final File file = new File(dir, name + ".gram");
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't create " + dir);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(grammar);
+        } finally {
+            writer.close();
+        }
+        final Jsgf jsgf = new Jsgf(file.getPath());
+        for (JsgfRule rule : jsgf) {
+            if (rule.isPublic())
+                return new Compiled(name, jsgf.buildFsg(rule, decoder.getLogmath(), LANGUAGE_WEIGHT));
+        }
+        throw new IOException("no public rule in grammar " + jsgf.name());
+    }
+
+    private static String hash(String text) throws UnsupportedEncodingException {
+        try {
+            return String.format("%040x", new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Threads shared by the head nodes: one thread per priority {@link Lane} and a single timer wheel for delayed
+ * and periodic work. Nodes post work to a lane instead of starting threads or sleeping in loops, so publishing
+ * and reconnecting can't hold up the audio path. A lane runs its tasks in order, state used by one lane only
+ * needs no locks.
+ * <p>
+ * Lanes are used through {@link ScheduledExecutorService} views, their timers fire on the wheel thread and only
+ * hand the task to the lane. A periodic task still waiting or running when it is due again skips that run, one
+ * that throws is reported to the error handler and keeps its schedule. Shutting a view down only stops the work
+ * posted through it, as a node stopping would expect, the lane goes on for the others until the owner shuts the
+ * scheduler down. Work posted by nodes still stopping after that is dropped.
+ * <p>
+ * A lane queues up to {@link #LANE_CAPACITY} tasks in an array, posting allocates no queue node; work beyond
+ * that is dropped and counted. A {@link Task} posted over and over, e.g. per sensor event, is measured in place
+ * and allocates nothing at all, any other task gets a wrapper per post.
+ * <p>
+ * Metrics of every lane in the scheduler group: queue depth, wait from posting (or the timer) to start,
+ * run time, skipped periodic runs and dropped tasks.
+ */
+public class HeadScheduler {
+
+    public enum Lane {
+        AUDIO(Thread.MAX_PRIORITY),//speech pipeline: command responses and deadlines, synthesis callbacks
+        SENSOR(Thread.NORM_PRIORITY + 2),//sensor and battery publishing
+        STREAM(Thread.NORM_PRIORITY + 1),//microphone audio publishing, must not wait behind the master
+        NETWORK(Thread.NORM_PRIORITY),//blocking calls to the master
+        BACKGROUND(Thread.MIN_PRIORITY);//metrics, grammar compilation, dumps
+
+        final int priority;
+
+        Lane(int priority) {
+            this.priority = priority;
+        }
+    }
+
+    public final static long TICK_MILLIS = 10;
+    private final static long TICK_NANOS = TICK_MILLIS * 1000000L;
+    private final static int WHEEL_SIZE = 512;//ticks of one turn, longer delays wait for rounds
+    public final static int LANE_CAPACITY = 1024;
+
+    private final Thread.UncaughtExceptionHandler errorHandler;
+    private final LanePool[] lanes = new LanePool[Lane.values().length];
+    private final TimerWheel wheel = new TimerWheel();
+    private volatile boolean stopped;
+
+    /**
+     * @param errorHandler receives exceptions of tasks posted with execute and of periodic tasks, the lane goes on
+     */
+    public HeadScheduler(Thread.UncaughtExceptionHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        for (Lane lane : Lane.values())
+            lanes[lane.ordinal()] = new LanePool(lane);
+        wheel.thread.start();
+    }
+
+    /**
+     * @return a new view of the lane, its shutdown stops only the work posted through it
+     */
+    public ScheduledExecutorService executor(Lane lane) {
+        return new LaneExecutor(lanes[lane.ordinal()]);
+    }
+
+    /**
+     * Task reposted without allocating: its wait and run are measured in the task itself instead of a wrapper.
+     * It must not be posted again before it started running, e.g. guard the post with a flag the body clears.
+     */
+    public static final class Task implements Runnable {
+        private final Runnable body;
+        //set by the posting thread, read on the lane after the queue hand-off
+        private LaneExecutor view;
+        private long postedAt;
+
+        public Task(Runnable body) {
+            this.body = body;
+        }
+
+        private Task posted(LaneExecutor view) {
+            this.view = view;
+            postedAt = System.nanoTime();
+            return this;
+        }
+
+        @Override
+        public void run() {
+            view.run(body, postedAt);
+        }
+    }
+
+    /**
+     * Cancels the timers and interrupts the running tasks
+     */
+    public void shutdown() {
+        stopped = true;
+        LockSupport.unpark(wheel.thread);
+        for (LanePool lane : lanes)
+            lane.pool.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (LanePool lane : lanes)
+            if (!lane.pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                return false;
+        wheel.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        return !wheel.thread.isAlive();
+    }
+
+    /**
+     * Thread and metrics of a lane
+     */
+    private static final class LanePool {
+        private final ThreadPoolExecutor pool;
+        private final Metrics.Histogram wait;
+        private final Metrics.Histogram run;
+        private final Metrics.Counter skipped;
+        private final Metrics.Counter dropped;
+
+        LanePool(final Lane lane) {
+            final String name = lane.name().toLowerCase(Locale.US);
+            pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(LANE_CAPACITY),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "head-" + name);
+                            thread.setPriority(lane.priority);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });//rejects when full or shut down, the view handles it
+            wait = Metrics.histogram("scheduler/" + name + "_wait");
+            run = Metrics.histogram("scheduler/" + name + "_run");
+            skipped = Metrics.counter("scheduler/" + name + "_skipped");
+            dropped = Metrics.counter("scheduler/" + name + "_dropped");
+            Metrics.gauge("scheduler/" + name + "_queue", new Metrics.Gauge() {
+                @Override
+                public long get() {
+                    return pool.getQueue().size();
+                }
+            });
+        }
+    }
+
+    /**
+     * View of a lane given to a node. After its shutdown new work is dropped, delayed tasks still run and
+     * periodic ones are cancelled when due, as with {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+     */
+    private final class LaneExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+        private final LanePool lane;
+        private final AtomicInteger active = new AtomicInteger();//posted through this view and not done
+        private volatile boolean shut;
+
+        LaneExecutor(LanePool lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (!shut)
+                post(command);
+        }
+
+        /**
+         * @return false if the lane is full or the scheduler is shut down, the task is dropped
+         */
+        boolean post(Runnable task) {
+            active.incrementAndGet();
+            try {
+                lane.pool.execute(task instanceof Task ? ((Task) task).posted(this) : new Timed(task, this));
+                return true;
+            } catch (RejectedExecutionException e) {
+                if (!lane.pool.isShutdown())
+                    lane.dropped.increment();
+                done();
+                return false;
+            }
+        }
+
+        /**
+         * On the lane: measures the wait since posting and the run of the task
+         */
+        void run(Runnable task, long postedAt) {
+            final long startedAt = System.nanoTime();
+            lane.wait.record(startedAt - postedAt);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                errorHandler.uncaughtException(Thread.currentThread(), e);
+            } finally {
+                lane.run.recordSince(startedAt);
+                done();
+            }
+        }
+
+        void done() {
+            if (active.decrementAndGet() == 0 && shut)
+                synchronized (this) {
+                    notifyAll();
+                }
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return add(new Timer<Void>(command, this, deadline(delay, unit), 0));
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return add(new Timer<V>(callable, this, deadline(delay, unit)));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            if (period <= 0)
+                throw new IllegalArgumentException("period " + period);
+            return add(new Timer<Void>(command, this, deadline(initialDelay, unit), unit.toNanos(period)));
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            if (delay <= 0)
+                throw new IllegalArgumentException("delay " + delay);
+            return add(new Timer<Void>(command, this, deadline(initialDelay, unit), -unit.toNanos(delay)));
+        }
+
+        private <T extends Timer<?>> T add(T timer) {
+            if (shut) {
+                timer.cancel(false);
+                return timer;
+            }
+            return wheel.add(timer);
+        }
+
+        private long deadline(long delay, TimeUnit unit) {
+            return System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+        }
+
+        @Override
+        public void shutdown() {
+            shut = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Same as {@link #shutdown()}: tasks of other nodes share the queue, none are taken out or interrupted
+         */
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shut || lane.pool.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shut && active.get() == 0 || lane.pool.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (!isTerminated()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        return false;
+                    //the scheduler shutting down does not notify, waits are a tick at most
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TICK_NANOS));
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Measures the wait and the run of a task on its lane
+     */
+    private static final class Timed implements Runnable {
+        private final Runnable task;
+        private final LaneExecutor view;
+        private final long postedAt = System.nanoTime();
+
+        Timed(Runnable task, LaneExecutor view) {
+            this.task = task;
+            this.view = view;
+        }
+
+        @Override
+        public void run() {
+            view.run(task, postedAt);
+        }
+    }
+
+    /**
+     * Body of a periodic task: a failed run is reported, not the end of the schedule
+     */
+    private final class Reporting implements Runnable {
+        private final Runnable task;
+
+        Reporting(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                errorHandler.uncaughtException(Thread.currentThread(), e);
+            }
+        }
+    }
+
+    /**
+     * Future of a delayed or periodic task, runs on its lane when the wheel fires it
+     */
+    private final class Timer<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        private final LaneExecutor view;
+        private final long period;//nanos, >0 at a fixed rate, <0 with a fixed delay, 0 once
+        private final AtomicBoolean queued = new AtomicBoolean();//a run is waiting on the lane or running
+        private volatile long deadline;
+        //wheel thread only
+        private long rounds;
+        private Timer<?> next;
+
+        Timer(Callable<V> callable, LaneExecutor view, long deadline) {
+            super(callable);
+            this.view = view;
+            this.deadline = deadline;
+            period = 0;
+        }
+
+        Timer(Runnable runnable, LaneExecutor view, long deadline, long period) {
+            super(period == 0 ? runnable : new Reporting(runnable), null);
+            this.view = view;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Called by the wheel when due
+         */
+        void fire() {
+            if (view.shut && period != 0) {
+                cancel(false);
+                return;
+            }
+            if (period > 0) {
+                deadline += period;
+                wheel.add(this);
+            }
+            if (queued.compareAndSet(false, true)) {
+                if (view.post(this))
+                    return;
+                queued.set(false);//dropped by a full lane
+                if (period == 0)
+                    cancel(false);
+                else if (period < 0) {//runs again after the delay, as if it ran now
+                    deadline = System.nanoTime() - period;
+                    wheel.add(this);
+                }
+            } else
+                view.lane.skipped.increment();
+        }
+
+        @Override
+        public void run() {
+            if (period == 0) {
+                super.run();
+                return;
+            }
+            final boolean again = runAndReset();
+            queued.set(false);
+            if (again && period < 0) {
+                deadline = System.nanoTime() - period;
+                wheel.add(this);
+            }
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            final long difference = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Hashed wheel of {@link #WHEEL_SIZE} buckets of {@link #TICK_MILLIS}: a timer is put in the bucket of its
+     * deadline and fires at most a tick late. The thread parks while there are no timers.
+     */
+    private final class TimerWheel implements Runnable {
+        private final Thread thread = new Thread(this, "head-timer");
+        private final Timer<?>[] buckets = new Timer<?>[WHEEL_SIZE];//linked through Timer.next
+        private final ConcurrentLinkedQueue<Timer<?>> added = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();//in the buckets or added
+        private final long startedAt = System.nanoTime();
+        private long tick;
+
+        TimerWheel() {
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.setDaemon(true);
+        }
+
+        <T extends Timer<?>> T add(T timer) {
+            if (stopped) {
+                timer.cancel(false);
+                return timer;
+            }
+            pending.incrementAndGet();
+            added.add(timer);
+            LockSupport.unpark(thread);
+            return timer;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                if (pending.get() == 0) {
+                    LockSupport.park(this);
+                    tick = Math.max(tick, (System.nanoTime() - startedAt) / TICK_NANOS);//nothing fired meanwhile
+                    continue;
+                }
+                final long sleep = startedAt + (tick + 1) * TICK_NANOS - System.nanoTime();
+                if (sleep > 0) {
+                    LockSupport.parkNanos(this, sleep);
+                    continue;
+                }
+                transfer();
+                expire();
+                tick++;
+            }
+            final List<Timer<?>> timers = new ArrayList<>(added);
+            for (Timer<?> bucket : buckets)
+                for (Timer<?> timer = bucket; timer != null; timer = timer.next)
+                    timers.add(timer);
+            for (Timer<?> timer : timers)
+                timer.cancel(false);
+        }
+
+        private void transfer() {
+            Timer<?> timer;
+            while ((timer = added.poll()) != null) {
+                if (timer.isDone()) {
+                    pending.decrementAndGet();
+                    continue;
+                }
+                final long ticks = Math.max((timer.deadline - startedAt) / TICK_NANOS, tick);
+                final int index = (int) (ticks % WHEEL_SIZE);
+                timer.rounds = (ticks - tick) / WHEEL_SIZE;
+                timer.next = buckets[index];
+                buckets[index] = timer;
+            }
+        }
+
+        private void expire() {
+            final int index = (int) (tick % WHEEL_SIZE);
+            Timer<?> timer = buckets[index];
+            Timer<?> kept = null;
+            while (timer != null) {
+                final Timer<?> next = timer.next;
+                timer.next = null;
+                if (timer.isDone())
+                    pending.decrementAndGet();
+                else if (timer.rounds > 0) {
+                    timer.rounds--;
+                    timer.next = kept;
+                    kept = timer;
+                } else {
+                    pending.decrementAndGet();
+                    timer.fire();
+                }
+                timer = next;
+            }
+            buckets[index] = kept;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Preallocated ring of fused IMU samples between the sensor thread (single producer)
+ * and the publishing loop (single consumer). Samples that do not fit are dropped and counted.
+ */
+public class ImuSampleBuffer {
+
+    /**
+     * Reusable sample: timestamp of the sensor event, orientation (w, x, y, z),
+     * angular velocity and linear acceleration (x, y, z)
+     */
+    public static class Sample {
+        public long stamp;
+        public final float[] orientation = new float[4];
+        public final float[] angularVelocity = new float[3];
+        public final float[] linearAcceleration = new float[3];
+    }
+
+    private final int mask;
+    private final long[] stamps;
+    private final float[] orientations;
+    private final float[] angularVelocities;
+    private final float[] linearAccelerations;
+    private volatile long head;//next slot to write
+    private volatile long tail;//next slot to read
+    private volatile long dropped;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public ImuSampleBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        stamps = new long[size];
+        orientations = new float[size * 4];
+        angularVelocities = new float[size * 3];
+        linearAccelerations = new float[size * 3];
+    }
+
+    public boolean add(long stamp, float[] orientation, float[] angularVelocity, float[] linearAcceleration) {
+        final long h = head;
+        if (h - tail > mask) {
+            dropped++;
+            return false;
+        }
+        final int slot = (int) (h & mask);
+        stamps[slot] = stamp;
+        System.arraycopy(orientation, 0, orientations, slot * 4, 4);
+        System.arraycopy(angularVelocity, 0, angularVelocities, slot * 3, 3);
+        System.arraycopy(linearAcceleration, 0, linearAccelerations, slot * 3, 3);
+        head = h + 1;
+        return true;
+    }
+
+    /**
+     * Moves the oldest sample into the given one
+     *
+     * @return false if the buffer is empty
+     */
+    public boolean poll(Sample sample) {
+        final long t = tail;
+        if (t == head)
+            return false;
+        final int slot = (int) (t & mask);
+        sample.stamp = stamps[slot];
+        System.arraycopy(orientations, slot * 4, sample.orientation, 0, 4);
+        System.arraycopy(angularVelocities, slot * 3, sample.angularVelocity, 0, 3);
+        System.arraycopy(linearAccelerations, slot * 3, sample.linearAcceleration, 0, 3);
+        tail = t + 1;
+        return true;
+    }
+
+    public int size() {
+        return (int) (head - tail);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+}
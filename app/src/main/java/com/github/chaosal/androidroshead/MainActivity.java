@@ -1,6 +1,5 @@
 package com.github.chaosal.androidroshead;
 
-import android.hardware.Camera;
 import android.hardware.SensorManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
@@ -9,21 +8,25 @@ import android.util.TimingLogger;
 import android.widget.Toast;
 
 import org.ros.android.RosActivity;
-import org.ros.android.view.camera.RosCameraPreviewView;
-import org.ros.node.NodeConfiguration;
 import org.ros.node.NodeMainExecutor;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
 public class MainActivity extends RosActivity {
 
-    private RosCameraPreviewView rosCameraPreviewView;
+    private CameraNode cameraNode;
+    private FlightRecorder flightRecorder;
+    private FlightRecorderNode flightRecorderNode;
+    private MetricsNode metricsNode;
     private SpeakNode speakNode;
     private SensorsNode sensorsNode;
     private SpeechRecognitionNode speechRecognitionNode;
     private GlobalState globalState;
+    private HeadScheduler scheduler;
+    private NodeSupervisor supervisor;
 
     public MainActivity() {
         super("android_ros_head", "android_ros_head");
@@ -35,10 +38,25 @@ public class MainActivity extends RosActivity {
         setContentView(R.layout.activity_main);
 
         globalState = new GlobalState();
-        sensorsNode = new SensorsNode(this.getApplicationContext(), (SensorManager) getSystemService(SENSOR_SERVICE), globalState);
-        speakNode = new SpeakNode(this.getApplicationContext(), globalState);
-        speechRecognitionNode = new SpeechRecognitionNode(this.getApplicationContext(), globalState);
-        rosCameraPreviewView = (RosCameraPreviewView) findViewById(R.id.ros_camera_preview_view);
+        //nodes post their work to the shared lanes instead of running threads of their own
+        scheduler = new HeadScheduler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                Log.e("MainActivity", "task failed on " + thread.getName(), throwable);
+            }
+        });
+        sensorsNode = new SensorsNode(this.getApplicationContext(), (SensorManager) getSystemService(SENSOR_SERVICE), globalState, scheduler);
+        speakNode = new SpeakNode(this.getApplicationContext(), globalState, scheduler);
+        speechRecognitionNode = new SpeechRecognitionNode(this.getApplicationContext(), globalState, scheduler);
+        cameraNode = new CameraNode(this.getApplicationContext());
+        metricsNode = new MetricsNode(this.getApplicationContext(), scheduler);
+        try {
+            flightRecorder = new FlightRecorder(new File(getFilesDir(), "flight.rec"), FlightRecorder.DEFAULT_RECORDS);
+            FlightRecorder.install(flightRecorder);
+            flightRecorderNode = new FlightRecorderNode(this.getApplicationContext(), flightRecorder, scheduler);
+        } catch (IOException e) {
+            Log.e("MainActivity", "can't open flight recorder", e);
+        }
     }
 
     @Override
@@ -54,28 +72,39 @@ public class MainActivity extends RosActivity {
 
     @Override
     protected void init(NodeMainExecutor nodeMainExecutor) {
-        if (Camera.getNumberOfCameras() > 0)
-            rosCameraPreviewView.setCamera(Camera.open());
-        try {
-            java.net.Socket socket = new java.net.Socket(getMasterUri().getHost(), getMasterUri().getPort());
-            java.net.InetAddress local_network_address = socket.getLocalAddress();
-            socket.close();
-            NodeConfiguration nodeConfiguration =
-                    NodeConfiguration.newPublic(local_network_address.getHostAddress(), getMasterUri());
-
-            nodeMainExecutor.execute(sensorsNode, nodeConfiguration);
-            nodeMainExecutor.execute(speakNode, nodeConfiguration);
-            nodeMainExecutor.execute(rosCameraPreviewView, nodeConfiguration);
-            nodeMainExecutor.execute(speechRecognitionNode, nodeConfiguration);
-
-        } catch (IOException e) {
-            // Socket problem
-            Log.e("MainActivity", getString(R.string.socket_error));
+        final URI masterUri = getMasterUri();
+        if (masterUri == null) {
+            Log.e("MainActivity", getString(R.string.master_uri_error));
+            return;
         }
+        supervisor = new NodeSupervisor(nodeMainExecutor, masterUri, scheduler.executor(HeadScheduler.Lane.NETWORK));
+        supervisor.add(sensorsNode);
+        supervisor.add(speakNode);
+        supervisor.add(cameraNode);
+        supervisor.add(speechRecognitionNode);
+        supervisor.add(metricsNode);
+        if (flightRecorderNode != null)
+            supervisor.add(flightRecorderNode);
+        supervisor.start();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
     }
+
+    @Override
+    protected void onDestroy() {
+        if (supervisor != null)
+            supervisor.shutdown();//nodes shut down with the activity are not restarted
+        super.onDestroy();
+        SharedRecognizer.shutdown();
+        scheduler.shutdown();
+        if (flightRecorder != null)
+            try {
+                flightRecorder.close();
+            } catch (IOException e) {
+                Log.e("MainActivity", e.getMessage(), e);
+            }
+    }
 }
@@ -0,0 +1,45 @@
+package com.github.chaosal.androidroshead;
+
+import org.ros.node.topic.Publisher;
+
+/**
+ * Fixed set of preallocated messages handed out round-robin to a single producer.
+ * rosjava serializes published messages asynchronously from a bounded outgoing queue,
+ * so the ring must be longer than that queue for a message not to be reused before it is written.
+ */
+public class MessageRing<T> {
+
+    public final static int DEFAULT_SIZE = 32;
+
+    private final Object[] messages;
+    private int next;
+
+    public MessageRing(Publisher<T> publisher, int size) {
+        messages = new Object[size];
+        for (int i = 0; i < size; i++)
+            messages[i] = publisher.newMessage();
+    }
+
+    public MessageRing(Publisher<T> publisher) {
+        this(publisher, DEFAULT_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() {
+        final T message = (T) messages[next];
+        next = (next + 1) % messages.length;
+        return message;
+    }
+
+    /**
+     * All messages of the ring, e.g. to fill constant fields once
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        return (T) messages[index];
+    }
+
+    public int size() {
+        return messages.length;
+    }
+}
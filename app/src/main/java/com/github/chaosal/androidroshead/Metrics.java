@@ -0,0 +1,107 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide registry of counters, latency histograms and gauges shared by the nodes and published by
+ * {@link MetricsNode}. Names are "group/metric", e.g. "speech/wake_words". Metrics are looked up once, usually
+ * into static fields, and updated lock-free; while disabled an update is a single volatile read.
+ */
+public final class Metrics {
+
+    public interface Gauge {
+        long get();
+    }
+
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            if (enabled)
+                value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            if (enabled)
+                value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Latencies in nanoseconds
+     */
+    public static final class Histogram extends LatencyHistogram {
+        private Histogram() {
+        }
+
+        @Override
+        public void record(long nanos) {
+            if (enabled)
+                super.record(nanos);
+        }
+
+        /**
+         * Records the time elapsed since a System.nanoTime() reading
+         */
+        public void recordSince(long startNanos) {
+            if (enabled)
+                super.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static volatile boolean enabled = true;
+    private static final ConcurrentNavigableMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static Counter counter(String name) {
+        final Object metric = metrics.get(name);
+        if (metric != null)
+            return (Counter) metric;
+        final Counter counter = new Counter();
+        final Object previous = metrics.putIfAbsent(name, counter);
+        return previous != null ? (Counter) previous : counter;
+    }
+
+    public static Histogram histogram(String name) {
+        final Object metric = metrics.get(name);
+        if (metric != null)
+            return (Histogram) metric;
+        final Histogram histogram = new Histogram();
+        final Object previous = metrics.putIfAbsent(name, histogram);
+        return previous != null ? (Histogram) previous : histogram;
+    }
+
+    /**
+     * Registers a value read when metrics are published, replacing the gauge of a restarted node
+     */
+    public static void gauge(String name, Gauge gauge) {
+        metrics.put(name, gauge);
+    }
+
+    /**
+     * All metrics by name: {@link Counter}, {@link Histogram} or {@link Gauge}
+     */
+    public static Map<String, Object> getAll() {
+        return metrics;
+    }
+}
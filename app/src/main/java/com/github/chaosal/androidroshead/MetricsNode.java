@@ -0,0 +1,168 @@
+package com.github.chaosal.androidroshead;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import org.ros.message.MessageFactory;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import diagnostic_msgs.DiagnosticArray;
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
+
+
+/**
+ * Publishes {@link Metrics} of all nodes on /diagnostics (diagnostic_msgs/DiagnosticArray) every ~period seconds,
+ * one status per metric group. Counters are published with their rate over the period, histograms as
+ * percentiles of the period in ms, gauges as read. Runs on the background lane.
+ */
+public class MetricsNode extends AbstractNodeMain {
+
+    public final static String TOPIC = "/diagnostics";
+    public final static String PARAM_ENABLED = "~enabled";
+    public final static String PARAM_PERIOD = "~period";
+    private final static String CONTEXT = "metrics";
+    private final static double DEFAULT_PERIOD = 5;//s
+    private final static double NANOS_PER_MILLI = 1e6;
+
+    private final Context context;
+    private final HeadScheduler scheduler;
+    private Publisher<DiagnosticArray> publisher;
+    private MessageFactory messageFactory;
+    private ScheduledFuture<?> task;
+    private final Map<String, Long> previousCounts = new HashMap<>();
+
+    public MetricsNode(Context applicationContext, HeadScheduler scheduler) {
+        this.context = applicationContext;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public GraphName getDefaultNodeName() {
+        return GraphName.of(context.getString(R.string.nodes_prefix) + "/metrics");
+    }
+
+    @Override
+    public void onStart(final ConnectedNode connectedNode) {
+        super.onStart(connectedNode);
+        final ParameterTree params = connectedNode.getParameterTree();
+        Metrics.setEnabled(params.getBoolean(PARAM_ENABLED, true));
+        if (!Metrics.isEnabled())
+            return;
+        final long periodMillis = (long) (params.getDouble(PARAM_PERIOD, DEFAULT_PERIOD) * 1000);
+        messageFactory = connectedNode.getTopicMessageFactory();
+        publisher = connectedNode.newPublisher(GraphName.of(TOPIC), DiagnosticArray._TYPE);
+        registerRuntimeGauges();
+        task = scheduler.executor(HeadScheduler.Lane.BACKGROUND).scheduleAtFixedRate(new Runnable() {
+            private long publishedAt = System.nanoTime();
+
+            @Override
+            public void run() {
+                final long now = System.nanoTime();
+                final DiagnosticArray message = publisher.newMessage();
+                message.getHeader().setStamp(connectedNode.getCurrentTime());
+                message.setStatus(statuses((now - publishedAt) / 1e9));
+                publishedAt = now;
+                publisher.publish(message);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void registerRuntimeGauges() {
+        final Runtime runtime = Runtime.getRuntime();
+        Metrics.gauge("runtime/heap_used_kb", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+            }
+        });
+        if (Build.VERSION.SDK_INT >= 23)
+            Metrics.gauge("runtime/gc_count", new Metrics.Gauge() {
+                @Override
+                public long get() {
+                    final String count = Debug.getRuntimeStat("art.gc.gc-count");
+                    return count != null ? Long.parseLong(count) : -1;
+                }
+            });
+    }
+
+    /**
+     * One status per group, the period is used for counter rates
+     */
+    private List<DiagnosticStatus> statuses(double periodSeconds) {
+        final String prefix = context.getString(R.string.nodes_prefix);
+        final List<DiagnosticStatus> statuses = new ArrayList<>();
+        DiagnosticStatus status = null;
+        String group = null;
+        for (Map.Entry<String, Object> metric : Metrics.getAll().entrySet()) {
+            final String name = metric.getKey();
+            final int slash = name.indexOf('/');
+            final String metricGroup = slash < 0 ? "" : name.substring(0, slash);
+            final String key = name.substring(slash + 1);
+            if (status == null || !metricGroup.equals(group)) {
+                group = metricGroup;
+                status = messageFactory.newFromType(DiagnosticStatus._TYPE);
+                status.setName(prefix + "/" + group);
+                status.setHardwareId(Build.SERIAL);
+                status.setLevel(DiagnosticStatus.OK);
+                statuses.add(status);
+            }
+            final List<KeyValue> values = status.getValues();
+            final Object value = metric.getValue();
+            if (value instanceof Metrics.Counter) {
+                final long count = ((Metrics.Counter) value).get();
+                final Long previous = previousCounts.put(name, count);
+                values.add(keyValue(key, String.valueOf(count)));
+                values.add(keyValue(key + "_per_s", format((count - (previous != null ? previous : 0)) / periodSeconds)));
+            } else if (value instanceof Metrics.Histogram) {
+                final Metrics.Histogram histogram = (Metrics.Histogram) value;
+                values.add(keyValue(key + "_count", String.valueOf(histogram.getCount())));
+                values.add(keyValue(key + "_p50_ms", format(histogram.getPercentile(50) / NANOS_PER_MILLI)));
+                values.add(keyValue(key + "_p99_ms", format(histogram.getPercentile(99) / NANOS_PER_MILLI)));
+                values.add(keyValue(key + "_max_ms", format(histogram.getMax() / NANOS_PER_MILLI)));
+                histogram.reset();//percentiles of the period
+            } else if (value instanceof Metrics.Gauge)
+                values.add(keyValue(key, String.valueOf(((Metrics.Gauge) value).get())));
+        }
+        return statuses;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private KeyValue keyValue(String key, String value) {
+        final KeyValue keyValue = messageFactory.newFromType(KeyValue._TYPE);
+        keyValue.setKey(key);
+        keyValue.setValue(value);
+        return keyValue;
+    }
+
+    @Override
+    public void onShutdown(Node node) {
+        super.onShutdown(node);
+        if (task != null)
+            task.cancel(false);
+    }
+
+    @Override
+    public void onError(Node node, Throwable throwable) {
+        super.onError(node, throwable);
+        Log.e(CONTEXT, throwable.getMessage(), throwable);
+    }
+}
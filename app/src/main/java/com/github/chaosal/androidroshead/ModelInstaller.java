@@ -0,0 +1,278 @@
+package com.github.chaosal.androidroshead;
+
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Installs the recognizer model from APK assets, listed in assets.lst with build-time md5 files.
+ * The installed manifest keeps md5 and size of every file, so only changed or damaged files are copied,
+ * which needs no hashing on the device. Required files are copied first, in parallel with NIO channels,
+ * and reported before the rest. Installed files are verified against their md5 in background afterwards.
+ */
+public class ModelInstaller {
+
+    private final static String CONTEXT = ModelInstaller.class.getSimpleName();
+    public final static String ASSETS_DIR = "sync";
+    public final static String ASSETS_LIST = "assets.lst";
+    public final static String HASH_EXTENSION = ".md5";
+    public final static String MANIFEST = "manifest";
+
+    public interface Listener {
+        /**
+         * Required files are in place, called on an installer thread
+         */
+        void onRequiredInstalled(File dir);
+
+        /**
+         * All files are in place
+         */
+        void onInstalled(File dir);
+
+        void onError(IOException e);
+    }
+
+    private final AssetManager assetManager;
+    private final File dir;
+    private final ExecutorService executor;
+    private final Map<String, String[]> manifest = new HashMap<>();//name -> md5, size
+    private volatile long requiredMillis = -1;
+
+    /**
+     * @param copyThreads number of files copied in parallel
+     */
+    public ModelInstaller(AssetManager assetManager, File dir, int copyThreads) {
+        this.assetManager = assetManager;
+        this.dir = dir;
+        //one coordinates the copies and waits for them, on a single thread lane they would never run
+        this.executor = Executors.newFixedThreadPool(copyThreads + 1);
+    }
+
+    /**
+     * Starts installation in background, may be called once
+     *
+     * @param required names from assets.lst (or their directories) needed to start recognition
+     */
+    public void install(final Collection<String> required, final Listener listener) {
+        final long start = SystemClock.elapsedRealtime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Map<String, String> hashes = readAssetHashes();
+                    readManifest();
+                    final List<String> first = new ArrayList<>();
+                    final List<String> rest = new ArrayList<>();
+                    for (String name : hashes.keySet())
+                        (isRequired(name, required) ? first : rest).add(name);
+
+                    copyChanged(first, hashes);
+                    requiredMillis = SystemClock.elapsedRealtime() - start;
+                    Log.i(CONTEXT, "required model files installed in " + requiredMillis + " ms");
+                    listener.onRequiredInstalled(dir);
+
+                    copyChanged(rest, hashes);
+                    listener.onInstalled(dir);
+
+                    verify(hashes);
+                } catch (IOException e) {
+                    listener.onError(e);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Time from {@link #install} to the required files being in place, -1 until then
+     */
+    public long getRequiredMillis() {
+        return requiredMillis;
+    }
+
+    private static boolean isRequired(String name, Collection<String> required) {
+        for (String item : required)
+            if (name.equals(item) || name.startsWith(item + "/"))
+                return true;
+        return false;
+    }
+
+    private Map<String, String> readAssetHashes() throws IOException {
+        final Map<String, String> hashes = new LinkedHashMap<>();
+        for (String name : readLines(assetManager.open(ASSETS_DIR + "/" + ASSETS_LIST))) {
+            if (name.trim().isEmpty())
+                continue;
+            final List<String> hash = readLines(assetManager.open(ASSETS_DIR + "/" + name + HASH_EXTENSION));
+            hashes.put(name, hash.isEmpty() ? "" : hash.get(0).trim());
+        }
+        return hashes;
+    }
+
+    private synchronized void readManifest() throws IOException {
+        manifest.clear();
+        final File file = new File(dir, MANIFEST);
+        if (!file.isFile())
+            return;
+        for (String line : readLines(new FileInputStream(file))) {
+            final String[] fields = line.split(" ");
+            if (fields.length == 3)
+                manifest.put(fields[0], new String[]{fields[1], fields[2]});
+        }
+    }
+
+    private synchronized void writeManifest() throws IOException {
+        final File tmp = new File(dir, MANIFEST + ".tmp");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            for (Map.Entry<String, String[]> entry : manifest.entrySet())
+                writer.write(entry.getKey() + " " + entry.getValue()[0] + " " + entry.getValue()[1] + "\n");
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(new File(dir, MANIFEST)))
+            throw new IOException("can't write model manifest in " + dir);
+    }
+
+    private synchronized boolean isInstalled(String name, String hash) {
+        final String[] installed = manifest.get(name);
+        final File file = new File(dir, name);
+        return installed != null && installed[0].equals(hash) && file.isFile()
+                && String.valueOf(file.length()).equals(installed[1]);
+    }
+
+    private void copyChanged(Collection<String> names, final Map<String, String> hashes) throws IOException {
+        final List<Future<?>> copies = new ArrayList<>();
+        for (final String name : names) {
+            if (isInstalled(name, hashes.get(name)))
+                continue;
+            copies.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    final File file = copy(name);
+                    synchronized (ModelInstaller.this) {
+                        manifest.put(name, new String[]{hashes.get(name), String.valueOf(file.length())});
+                    }
+                    return null;
+                }
+            }));
+        }
+        if (copies.isEmpty())
+            return;
+        try {
+            for (Future<?> copy : copies)
+                copy.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("model installation interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        writeManifest();
+        Log.i(CONTEXT, "copied " + copies.size() + " model files");
+    }
+
+    private File copy(String name) throws IOException {
+        final File file = new File(dir, name);
+        final File tmp = new File(dir, name + ".tmp");
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+            throw new IOException("can't create " + file.getParentFile());
+        final ReadableByteChannel in = Channels.newChannel(assetManager.open(ASSETS_DIR + "/" + name));
+        try {
+            final FileChannel out = new FileOutputStream(tmp).getChannel();
+            try {
+                long position = 0;
+                long transferred;
+                while ((transferred = out.transferFrom(in, position, 1 << 20)) > 0)
+                    position += transferred;
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("can't install " + file);
+        return file;
+    }
+
+    /**
+     * Lazy integrity check: files damaged after installation are copied again for the next start
+     */
+    private void verify(Map<String, String> hashes) throws IOException {
+        final List<String> damaged = new ArrayList<>();
+        for (Map.Entry<String, String> hash : hashes.entrySet())
+            if (!hash.getValue().isEmpty() && !hash.getValue().equalsIgnoreCase(md5(new File(dir, hash.getKey()))))
+                damaged.add(hash.getKey());
+        if (damaged.isEmpty())
+            return;
+        Log.w(CONTEXT, "damaged model files: " + damaged);
+        synchronized (this) {
+            for (String name : damaged)
+                manifest.remove(name);
+        }
+        copyChanged(damaged, hashes);
+    }
+
+    private static String md5(File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        return String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+
+    private static List<String> readLines(InputStream stream) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line);
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
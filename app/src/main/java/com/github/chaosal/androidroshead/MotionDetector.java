@@ -0,0 +1,121 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Decides which camera frames are worth publishing. The luma plane of NV21 (or any format starting with
+ * a full resolution Y plane) is sampled on a coarse grid and compared to the previous frame, the motion score
+ * is the fraction of grid cells changed by more than sensor noise. Frames pass while there is motion and for
+ * a hold time after it, a still scene is only published as a keyframe every few seconds.
+ * Works on the camera thread, never allocates after construction.
+ */
+public class MotionDetector {
+
+    public final static int PIXEL_NOISE = 12;//luma levels
+
+    private final int width;
+    private final int step;
+    private final int columns;
+    private final int rows;
+    private final double threshold;
+    private final long holdNanos;
+    private final long keyframeNanos;
+    private final byte[] reference;
+    private boolean hasReference;
+    private double score;
+    private boolean moving;
+    private long lastMotion;
+    private boolean published;
+    private long lastPublished;
+    private long motionFrames;
+    private long keyframes;
+
+    /**
+     * @param step          grid step in pixels, e.g. 8 samples 80x60 cells of a 640x480 frame
+     * @param threshold     fraction of changed cells counted as motion, 0 passes every frame
+     * @param holdNanos     frames keep passing this long after the last motion
+     * @param keyframeNanos longest interval between published frames of a still scene
+     */
+    public MotionDetector(int width, int height, int step, double threshold, long holdNanos, long keyframeNanos) {
+        if (step <= 0)
+            throw new IllegalArgumentException("step must be positive");
+        this.width = width;
+        this.step = step;
+        columns = (width + step - 1) / step;
+        rows = (height + step - 1) / step;
+        this.threshold = threshold;
+        this.holdNanos = holdNanos;
+        this.keyframeNanos = keyframeNanos;
+        reference = new byte[columns * rows];
+    }
+
+    /**
+     * Scores a frame against the previous one
+     *
+     * @param nanos capture time, monotonic clock
+     * @return true if the frame should be published
+     */
+    public boolean accept(byte[] frame, long nanos) {
+        score = compare(frame);
+        if (score >= threshold) {
+            moving = true;
+            lastMotion = nanos;
+        } else if (moving && nanos - lastMotion > holdNanos)
+            moving = false;
+        final boolean keyframe = !published || nanos - lastPublished >= keyframeNanos;
+        if (!moving && !keyframe)
+            return false;
+        if (moving)
+            motionFrames++;
+        else
+            keyframes++;
+        published = true;
+        lastPublished = nanos;
+        return true;
+    }
+
+    /**
+     * Samples the grid into the reference and counts the cells changed since the previous frame
+     */
+    private double compare(byte[] frame) {
+        int changed = 0;
+        int cell = 0;
+        for (int row = 0; row < rows; row++) {
+            final int offset = row * step * width;
+            for (int column = 0; column < columns; column++, cell++) {
+                final int luma = frame[offset + column * step] & 0xFF;
+                if (Math.abs(luma - (reference[cell] & 0xFF)) > PIXEL_NOISE)
+                    changed++;
+                reference[cell] = (byte) luma;
+            }
+        }
+        if (!hasReference) {
+            hasReference = true;
+            return 1;//nothing to compare with, treated as motion
+        }
+        return (double) changed / reference.length;
+    }
+
+    /**
+     * Motion score of the last frame, 0..1
+     */
+    public double getScore() {
+        return score;
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * Frames passed because of motion
+     */
+    public long getMotionFrames() {
+        return motionFrames;
+    }
+
+    /**
+     * Frames of a still scene passed as keyframes
+     */
+    public long getKeyframes() {
+        return keyframes;
+    }
+}
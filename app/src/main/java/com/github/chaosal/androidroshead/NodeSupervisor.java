@@ -0,0 +1,267 @@
+package com.github.chaosal.androidroshead;
+
+import android.util.Log;
+
+import org.ros.address.InetAddressFactory;
+import org.ros.internal.node.client.MasterClient;
+import org.ros.internal.node.response.StatusCode;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.NodeListener;
+import org.ros.node.NodeMain;
+import org.ros.node.NodeMainExecutor;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts nodes and keeps them registered with the master. A node that fails, does not come up or is forgotten
+ * by a restarted master is shut down and started again with exponential backoff, each node on its own.
+ * A master that is only unreachable for a while is waited for: its registrations survive.
+ * All supervision runs on the single thread network lane, node listeners only post to it.
+ */
+public class NodeSupervisor {
+
+    private final static String CONTEXT = "supervisor";
+    private final static long CHECK_PERIOD = 2000;//ms
+    private final static int PROBE_TIMEOUT = 1000;//ms
+    private final static long START_TIMEOUT = 30000;//ms
+    private final static long INITIAL_BACKOFF = 1000;//ms
+    private final static long MAX_BACKOFF = 30000;//ms
+    private final static Metrics.Histogram RECONNECT = Metrics.histogram("supervisor/reconnect");
+    private final static Metrics.Counter RESTARTS = Metrics.counter("supervisor/restarts");
+
+    private final NodeMainExecutor executor;
+    private final URI masterUri;
+    private final MasterClient masterClient;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> checkTask;
+    private volatile boolean stopped;
+    private final Random random = new Random();
+    private final List<Supervised> nodes = new ArrayList<>();
+
+    /**
+     * @param scheduler runs the supervision, the network lane: checks block on the master
+     */
+    public NodeSupervisor(NodeMainExecutor executor, URI masterUri, ScheduledExecutorService scheduler) {
+        this.executor = executor;
+        this.masterUri = masterUri;
+        this.scheduler = scheduler;
+        masterClient = new MasterClient(masterUri);
+    }
+
+    /**
+     * Adds a node to start, before {@link #start}
+     */
+    public void add(NodeMain node) {
+        nodes.add(new Supervised(node));
+    }
+
+    public void start() {
+        for (final Supervised supervised : nodes)
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    launch(supervised);
+                }
+            });
+        checkTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (RuntimeException e) {
+                    Log.e(CONTEXT, "supervision check failed", e);
+                }
+            }
+        }, CHECK_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops supervision, nodes are left to the executor
+     */
+    public void shutdown() {
+        stopped = true;
+        if (checkTask != null)
+            checkTask.cancel(false);
+    }
+
+    private final class Supervised implements NodeListener {
+        final NodeMain node;
+        final Backoff backoff = new Backoff(INITIAL_BACKOFF, MAX_BACKOFF, random);
+        volatile ConnectedNode connected;
+        //confined to the scheduler, a single thread lane
+        boolean running;
+        boolean restartPending;
+        long launchedAt;
+        long downSince;//0 while up
+
+        Supervised(NodeMain node) {
+            this.node = node;
+        }
+
+        @Override
+        public void onStart(ConnectedNode connectedNode) {
+            connected = connectedNode;
+        }
+
+        @Override
+        public void onShutdown(Node node) {
+        }
+
+        @Override
+        public void onShutdownComplete(Node node) {
+        }
+
+        @Override
+        public void onError(Node node, final Throwable throwable) {
+            if (stopped)
+                return;
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (running)
+                        fail(Supervised.this, "error " + throwable);
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return node.getDefaultNodeName().toString();
+        }
+    }
+
+    private void launch(Supervised supervised) {
+        supervised.restartPending = false;
+        if (stopped)
+            return;
+        try {
+            final NodeConfiguration configuration = NodeConfiguration.newPublic(localAddress(), masterUri);
+            supervised.connected = null;
+            supervised.launchedAt = System.currentTimeMillis();
+            executor.execute(supervised.node, configuration, Collections.<NodeListener>singleton(supervised));
+            supervised.running = true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(CONTEXT, "can't start " + supervised + ": " + e);
+            down(supervised);
+            restartLater(supervised);
+        }
+    }
+
+    private void check() {
+        if (!probe()) {
+            //nodes keep retrying on their own, a master back from a short outage still knows them
+            for (Supervised supervised : nodes)
+                down(supervised);
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (Supervised supervised : nodes) {
+            if (!supervised.running)
+                continue;//waiting for a restart
+            final ConnectedNode connected = supervised.connected;
+            if (connected == null) {
+                if (now - supervised.launchedAt > START_TIMEOUT)
+                    fail(supervised, "not started in " + START_TIMEOUT + " ms");
+            } else if (!registered(connected))
+                fail(supervised, "not registered with the master");
+            else if (supervised.downSince != 0) {
+                final long millis = now - supervised.downSince;
+                RECONNECT.record(millis * 1000000L);//from the master or the node found down to registered again
+                Log.i(CONTEXT, supervised + " reconnected in " + millis + " ms after "
+                        + supervised.backoff.getAttempts() + " restarts");
+                supervised.downSince = 0;
+                supervised.backoff.reset();
+            }
+        }
+    }
+
+    private void fail(Supervised supervised, String reason) {
+        Log.w(CONTEXT, supervised + " failed: " + reason);
+        down(supervised);
+        if (supervised.running) {
+            supervised.running = false;
+            supervised.connected = null;
+            executor.shutdownNodeMain(supervised.node);
+        }
+        restartLater(supervised);
+    }
+
+    private static void down(Supervised supervised) {
+        if (supervised.downSince == 0)
+            supervised.downSince = System.currentTimeMillis();
+    }
+
+    private void restartLater(final Supervised supervised) {
+        if (supervised.restartPending || stopped)
+            return;
+        supervised.restartPending = true;
+        RESTARTS.increment();
+        final long delay = supervised.backoff.next();
+        Log.i(CONTEXT, "restarting " + supervised + " in " + delay + " ms");
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                launch(supervised);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean registered(ConnectedNode connected) {
+        try {
+            return masterClient.lookupNode(connected.getName(), connected.getName().toString())
+                    .getStatusCode() == StatusCode.SUCCESS;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the master accepts connections, within a short timeout
+     */
+    private boolean probe() {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(masterUri.getHost(), masterUri.getPort()), PROBE_TIMEOUT);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.w(CONTEXT, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Address of the interface routing to the master. Connecting a datagram socket only looks the route up,
+     * nothing is sent and nothing blocks on the master being up.
+     */
+    private String localAddress() throws IOException {
+        final DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.connect(InetAddress.getByName(masterUri.getHost()), masterUri.getPort());
+            final InetAddress address = socket.getLocalAddress();
+            if (address != null && !address.isAnyLocalAddress())
+                return address.getHostAddress();
+        } finally {
+            socket.close();
+        }
+        return InetAddressFactory.newNonLoopback().getHostAddress();
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Latest orientation quaternion shared between the sensor thread (single writer) and publishers.
+ * Sequence lock: the writer never blocks or allocates, readers retry instead of observing a half-written sample.
+ */
+public class QuaternionBuffer {
+
+    private volatile int sequence;//odd while a write is in progress
+    private volatile float w;
+    private volatile float x;
+    private volatile float y;
+    private volatile float z;
+    private volatile long stamp;
+
+    /**
+     * Stores quaternion (w, x, y, z) with the sensor event timestamp. Must be called from one thread only.
+     */
+    public void write(float[] q, long stamp) {
+        final int seq = sequence;
+        sequence = seq + 1;
+        w = q[0];
+        x = q[1];
+        y = q[2];
+        z = q[3];
+        this.stamp = stamp;
+        sequence = seq + 2;
+    }
+
+    /**
+     * Copies the latest quaternion to q
+     *
+     * @return timestamp of the copied sample, 0 if nothing was written yet
+     */
+    public long read(float[] q) {
+        while (true) {
+            final int before = sequence;
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            q[0] = w;
+            q[1] = x;
+            q[2] = y;
+            q[3] = z;
+            final long result = stamp;
+            if (sequence == before)
+                return result;
+        }
+    }
+
+    /**
+     * Timestamp of the latest sample, cheap check for new data without copying it
+     */
+    public long getStamp() {
+        return stamp;
+    }
+}
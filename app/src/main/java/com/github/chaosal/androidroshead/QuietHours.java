@@ -0,0 +1,186 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Schedule of windows when the robot must not notify anybody.
+ * Specification: entries separated by ';', each is optional days and a time range in 24-hour clock,
+ * e.g. "22:00-09:00" or "mon-fri 23:00-07:00; sat,sun 00:00-10:00". A window that ends before it starts
+ * ends on the next day. The state is computed once per transition and cached until the next one.
+ */
+public class QuietHours {
+
+    public final static String DEFAULT = "22:00-09:00";
+
+    private final static String[] DAYS = {"sun", "mon", "tue", "wed", "thu", "fri", "sat"};
+    private final static long MINUTE = 60 * 1000L;
+    private final static int DAYS_AHEAD = 8;
+
+    private static final class Window {
+        final int days;//bit per Calendar.DAY_OF_WEEK - 1
+        final int from;//minutes after midnight
+        final int to;
+
+        Window(int days, int from, int to) {
+            this.days = days;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static final class Cached {
+        final long from;
+        final long until;
+        final boolean quiet;
+
+        Cached(long from, long until, boolean quiet) {
+            this.from = from;
+            this.until = until;
+            this.quiet = quiet;
+        }
+    }
+
+    private final List<Window> windows;
+    private final TimeZone timeZone;
+    private volatile Cached cached = new Cached(0, 0, false);
+
+    private QuietHours(List<Window> windows, TimeZone timeZone) {
+        this.windows = windows;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * @throws IllegalArgumentException on a malformed specification
+     */
+    public static QuietHours parse(String specification, TimeZone timeZone) {
+        final List<Window> windows = new ArrayList<>();
+        for (String entry : specification.split(";")) {
+            entry = entry.trim().toLowerCase(Locale.US);
+            if (entry.isEmpty())
+                continue;
+            final int space = entry.lastIndexOf(' ');
+            final int days = space < 0 ? 0x7f : parseDays(entry.substring(0, space).replace(" ", ""));
+            final String[] range = entry.substring(space + 1).split("-");
+            if (range.length != 2)
+                throw new IllegalArgumentException("bad time range: " + entry);
+            windows.add(new Window(days, parseMinutes(range[0]), parseMinutes(range[1])));
+        }
+        return new QuietHours(windows, timeZone);
+    }
+
+    public boolean isQuiet(long now) {
+        Cached state = cached;
+        if (now < state.from || now >= state.until) {
+            state = compute(now);
+            cached = state;
+        }
+        return state.quiet;
+    }
+
+    /**
+     * Time of the next change of {@link #isQuiet(long)} after now
+     */
+    public long nextTransition(long now) {
+        isQuiet(now);
+        return cached.until;
+    }
+
+    private Cached compute(long now) {
+        final Calendar calendar = new GregorianCalendar(timeZone, Locale.US);
+        final List<long[]> intervals = new ArrayList<>();
+        for (int offset = -1; offset <= DAYS_AHEAD; offset++) {
+            calendar.setTimeInMillis(now);
+            calendar.add(Calendar.DAY_OF_MONTH, offset);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            final int day = calendar.get(Calendar.DAY_OF_WEEK) - 1;
+            for (Window window : windows) {
+                if ((window.days & (1 << day)) == 0)
+                    continue;
+                final long start = minutesAfter(calendar, window.from, 0);
+                final long end = minutesAfter(calendar, window.to, window.to <= window.from ? 1 : 0);
+                intervals.add(new long[]{start, end});
+            }
+        }
+        boolean quiet = false;
+        long from = now - DAYS_AHEAD * 24 * 60 * MINUTE;
+        long until = now + DAYS_AHEAD * 24 * 60 * MINUTE;
+        for (long[] interval : intervals) {
+            if (interval[0] <= now && now < interval[1]) {
+                quiet = true;
+                from = interval[0];
+                until = interval[1];
+            }
+        }
+        if (quiet) {
+            boolean extended = true;
+            while (extended) {//overlapping or adjacent windows
+                extended = false;
+                for (long[] interval : intervals) {
+                    if (interval[0] <= until && interval[1] > until) {
+                        until = interval[1];
+                        extended = true;
+                    }
+                }
+            }
+        } else {
+            for (long[] interval : intervals) {
+                if (interval[0] > now && interval[0] < until)
+                    until = interval[0];
+                if (interval[1] <= now && interval[1] > from)
+                    from = interval[1];
+            }
+        }
+        return new Cached(Math.min(from, now), until, quiet);
+    }
+
+    private static long minutesAfter(Calendar midnight, int minutes, int days) {
+        final Calendar calendar = (Calendar) midnight.clone();
+        calendar.add(Calendar.DAY_OF_MONTH, days);
+        calendar.set(Calendar.HOUR_OF_DAY, minutes / 60);
+        calendar.set(Calendar.MINUTE, minutes % 60);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int parseDays(String days) {
+        int mask = 0;
+        for (String item : days.split(",")) {
+            final String[] range = item.split("-");
+            final int from = parseDay(range[0]);
+            final int to = range.length > 1 ? parseDay(range[1]) : from;
+            for (int day = from; ; day = (day + 1) % DAYS.length) {
+                mask |= 1 << day;
+                if (day == to)
+                    break;
+            }
+        }
+        return mask;
+    }
+
+    private static int parseDay(String day) {
+        for (int i = 0; i < DAYS.length; i++)
+            if (DAYS[i].equals(day))
+                return i;
+        throw new IllegalArgumentException("bad day: " + day);
+    }
+
+    private static int parseMinutes(String time) {
+        final String[] parts = time.split(":");
+        try {
+            final int hours = Integer.parseInt(parts[0]);
+            final int minutes = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59 || hours * 60 + minutes > 24 * 60)
+                throw new IllegalArgumentException("bad time: " + time);
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad time: " + time, e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.chaosal.androidroshead;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.Hypothesis;
+
+/**
+ * Offline evaluation of result filtering: replays recorded raw audio (16 kHz 16 bit mono little endian,
+ * as written by the recognizer raw log) through a decoder and counts false accepts and false rejects.
+ * Recordings are listed in a labels file, one per line: file name and the expected text,
+ * a file without text is noise that should be rejected.
+ */
+public class RecognitionEvaluator {
+
+    public final static String LABELS = "labels.txt";
+    private final static int CHUNK = 4096;//samples
+
+    public static final class Result {
+        private int correctAccepts;
+        private int correctRejects;
+        private int falseAccepts;
+        private int falseRejects;
+
+        /**
+         * @param expected   expected text, empty for noise
+         * @param hypothesis decoded text, null if none
+         */
+        public void add(String expected, String hypothesis, boolean accepted) {
+            if (expected.isEmpty()) {
+                if (accepted && hypothesis != null)
+                    falseAccepts++;
+                else
+                    correctRejects++;
+            } else if (!accepted || hypothesis == null)
+                falseRejects++;
+            else if (hypothesis.equals(expected))
+                correctAccepts++;
+            else
+                falseAccepts++;//a wrong command is worse than none
+        }
+
+        public int getTotal() {
+            return correctAccepts + correctRejects + falseAccepts + falseRejects;
+        }
+
+        public double getFalseAcceptRate() {
+            return getTotal() == 0 ? 0 : (double) falseAccepts / getTotal();
+        }
+
+        public double getFalseRejectRate() {
+            return getTotal() == 0 ? 0 : (double) falseRejects / getTotal();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("total: %d, correct accepts: %d, correct rejects: %d, false accepts: %d (%.3f), false rejects: %d (%.3f)",
+                    getTotal(), correctAccepts, correctRejects, falseAccepts, getFalseAcceptRate(), falseRejects, getFalseRejectRate());
+        }
+    }
+
+    private final Decoder decoder;
+    private final ConfidenceScorer scorer;
+
+    public RecognitionEvaluator(Decoder decoder, ConfidenceScorer scorer) {
+        this.decoder = decoder;
+        this.scorer = scorer;
+    }
+
+    /**
+     * Decodes every labelled recording of the directory with the search
+     */
+    public Result evaluate(File dir, String search) throws IOException {
+        return evaluate(dir, search, readLabels(new File(dir, LABELS)), null);
+    }
+
+    /**
+     * Decodes every labelled recording with the keyphrase search: recordings with the phrase in their text
+     * should wake, a detection in any other one is a false accept
+     */
+    public Result evaluateWakePhrase(File dir, String search, String phrase) throws IOException {
+        final Map<String, String> labels = new LinkedHashMap<>();
+        for (Map.Entry<String, String> label : readLabels(new File(dir, LABELS)).entrySet())
+            labels.put(label.getKey(), (" " + label.getValue() + " ").contains(" " + phrase + " ") ? phrase : "");
+        return evaluate(dir, search, labels, phrase);
+    }
+
+    /**
+     * @param word scored by the frames of its segment, null to score by the whole recording
+     */
+    private Result evaluate(File dir, String search, Map<String, String> labels, String word) throws IOException {
+        decoder.setSearch(search);
+        final Result result = new Result();
+        final short[] samples = new short[CHUNK];
+        final byte[] bytes = new byte[CHUNK * 2];
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            final FileInputStream in = new FileInputStream(new File(dir, label.getKey()));
+            decoder.startUtt();
+            try {
+                int read;
+                while ((read = in.read(bytes)) > 0) {
+                    ByteBuffer.wrap(bytes, 0, read).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples, 0, read / 2);
+                    decoder.processRaw(samples, read / 2, false, false);
+                }
+            } finally {
+                decoder.endUtt();
+                in.close();
+            }
+            final Hypothesis hypothesis = decoder.hyp();
+            final String text = hypothesis == null ? null : hypothesis.getHypstr();
+            final int frames = word == null ? decoder.nFrames() : AudioRecognizer.wordFrames(decoder, word);
+            final boolean accepted = hypothesis != null && scorer.isAccepted(
+                    scorer.confidence(ConfidenceScorer.frameScore(hypothesis.getBestScore(), frames)));
+            result.add(label.getValue(), text, accepted);
+        }
+        return result;
+    }
+
+    public static Map<String, String> readLabels(File file) throws IOException {
+        final Map<String, String> labels = new LinkedHashMap<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.trim().split("\\s+", 2);
+                if (!fields[0].isEmpty())
+                    labels.put(fields[0], fields.length > 1 ? fields[1] : "");
+            }
+        } finally {
+            reader.close();
+        }
+        return labels;
+    }
+}
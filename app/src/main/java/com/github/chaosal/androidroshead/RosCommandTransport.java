@@ -0,0 +1,183 @@
+package com.github.chaosal.androidroshead;
+
+import org.ros.exception.RemoteException;
+import org.ros.exception.ServiceNotFoundException;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.service.ServiceClient;
+import org.ros.node.service.ServiceResponseListener;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import smart_home_core.Command;
+import smart_home_core.CommandRequest;
+import smart_home_core.CommandResponse;
+
+/**
+ * {@link CommandDispatcher.Transport} over the smart_home_core/Command service.
+ * Keeps one persistent client, drops it when the service fails and reconnects lazily on the next call,
+ * not more often than the reconnect interval, so a restarted service is picked up without a node restart.
+ * Responses are handed to the callback on the given executor rather than on rosjava's threads.
+ * A {@link #reset()} after a timeout takes the client out of use for new calls only: the calls still waiting
+ * on it complete or fail with a {@link TimeoutException} at their own deadline, the client is shut down
+ * after the last of them.
+ */
+public class RosCommandTransport implements CommandDispatcher.Transport {
+
+    public final static String SERVICE = "/command";
+
+    private final ConnectedNode connectedNode;
+    private final long reconnectIntervalMillis;
+    private final long callTimeoutMillis;
+    private final ScheduledExecutorService callbackExecutor;
+    private ServiceClient<CommandRequest, CommandResponse> client;
+    private long connectAttemptAt;
+    private final Set<Call> calls = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * Call in flight, its callback is called once whichever of rosjava and the deadline completes it first
+     */
+    private final class Call implements Runnable {
+        final ServiceClient<CommandRequest, CommandResponse> client;
+        final CommandDispatcher.Callback callback;
+        final AtomicBoolean done = new AtomicBoolean();
+        ScheduledFuture<?> deadline;
+
+        Call(ServiceClient<CommandRequest, CommandResponse> client, CommandDispatcher.Callback callback) {
+            this.client = client;
+            this.callback = callback;
+        }
+
+        /**
+         * Deadline
+         */
+        @Override
+        public void run() {
+            fail(new TimeoutException(SERVICE + " did not answer in " + callTimeoutMillis + " ms"));
+        }
+
+        void respond(final String response) {
+            if (finish())
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResponse(response);
+                    }
+                });
+        }
+
+        void fail(final Exception e) {
+            if (finish())
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(e);
+                    }
+                });
+        }
+
+        private boolean finish() {
+            if (!done.compareAndSet(false, true))
+                return false;
+            synchronized (RosCommandTransport.this) {
+                deadline.cancel(false);
+                calls.remove(this);
+                shutdownIfRetired(client);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param callTimeoutMillis a call not answered by then fails with a {@link TimeoutException}
+     */
+    public RosCommandTransport(ConnectedNode connectedNode, long reconnectIntervalMillis, long callTimeoutMillis,
+                               ScheduledExecutorService callbackExecutor) {
+        this.connectedNode = connectedNode;
+        this.reconnectIntervalMillis = reconnectIntervalMillis;
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public void call(String command, CommandDispatcher.Callback callback) throws Exception {
+        final Call call;
+        synchronized (this) {
+            call = new Call(connect(), callback);
+            call.deadline = callbackExecutor.schedule(call, callTimeoutMillis, TimeUnit.MILLISECONDS);
+            calls.add(call);
+        }
+        final CommandRequest message = call.client.newMessage();
+        message.setCommand(command);
+        call.client.call(message, new ServiceResponseListener<CommandResponse>() {
+            @Override
+            public void onSuccess(CommandResponse response) {
+                call.respond(response.getResponse());
+            }
+
+            @Override
+            public void onFailure(RemoteException e) {
+                retire(call.client);
+                call.fail(e);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void reset() {
+        retire(client);
+    }
+
+    private synchronized ServiceClient<CommandRequest, CommandResponse> connect() throws ServiceNotFoundException {
+        if (client != null && client.isConnected())
+            return client;
+        retire(client);
+        final long now = System.currentTimeMillis();
+        if (now - connectAttemptAt < reconnectIntervalMillis)
+            throw new ServiceNotFoundException("waiting to reconnect to " + SERVICE);
+        connectAttemptAt = now;
+        client = connectedNode.newServiceClient(GraphName.of(SERVICE), Command._TYPE);
+        return client;
+    }
+
+    /**
+     * New calls connect again, the failed client is shut down once no call waits on it
+     */
+    private synchronized void retire(ServiceClient<CommandRequest, CommandResponse> failed) {
+        if (failed != null && failed == client) {
+            client = null;
+            shutdownIfRetired(failed);
+        }
+    }
+
+    private synchronized void shutdownIfRetired(ServiceClient<CommandRequest, CommandResponse> retired) {
+        if (closed || retired == client)
+            return;
+        for (Call call : calls)
+            if (call.client == retired)
+                return;
+        retired.shutdown();
+    }
+
+    /**
+     * Shuts down every client, calls still waiting fail at their deadlines
+     */
+    public synchronized void shutdown() {
+        final Set<ServiceClient<CommandRequest, CommandResponse>> clients = new HashSet<>();
+        for (Call call : calls)
+            clients.add(call.client);
+        if (client != null)
+            clients.add(client);
+        client = null;
+        closed = true;
+        for (ServiceClient<CommandRequest, CommandResponse> open : clients)
+            open.shutdown();
+    }
+}
@@ -9,16 +9,34 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
-import org.ros.concurrent.CancellableLoop;
+import org.ros.message.MessageFactory;
+import org.ros.message.MessageListener;
+import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
+import org.ros.node.parameter.ParameterTree;
 import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
 import geometry_msgs.PoseStamped;
+import sensor_msgs.Imu;
 
 
 /**
@@ -27,27 +45,86 @@ import geometry_msgs.PoseStamped;
 public class SensorsNode extends AbstractNodeMain {
 
     public final static String ORIENTATION_TOPIC = "/orientation";
+    public final static String IMU_TOPIC = "/imu";
     public final static String BATTERY_TOPIC = "/battery";
+    public final static String QUIET_HOURS_TOPIC = "/quiet_hours";
     public final static String BATTERY_CHARGING = "charging";
     public final static String BATTERY_DISCHARGING = "discharging";
     public final static byte BATTERY_LOW = 15;
+    public final static byte BATTERY_REARM = BATTERY_LOW + 5;
+    public final static String BATTERY_PERCENTAGE = "percentage";
+    public final static String BATTERY_VOLTAGE = "voltage";
+    public final static String BATTERY_TEMPERATURE = "temperature";
+    public final static String BATTERY_HEALTH = "health";
+    public final static String BATTERY_PLUGGED = "plugged";
+    public final static String PARAM_ORIENTATION_MODE = "~orientation_mode";
+    public final static String PARAM_ORIENTATION_RATE = "~orientation_rate";
+    public final static String PARAM_ORIENTATION_DEADBAND = "~orientation_deadband";
+    public final static String PARAM_IMU_RATE = "~imu_rate";
+    public final static String PARAM_IMU_MAX_LATENCY = "~imu_max_latency";
+    public final static String PARAM_QUIET_HOURS = "~quiet_hours";
+    public final static String PARAM_TIME_ZONE = "~time_zone";
+    public final static String PARAM_BATTERY_LEVEL_STEP = "~battery_level_step";
+    public final static String PARAM_BATTERY_MIN_INTERVAL = "~battery_min_interval";
+    public final static String PARAM_BATTERY_WARNING_REPEAT = "~battery_warning_repeat";
+
+    /**
+     * How orientation samples are published:
+     * EVENT - every sensor event, FIXED_RATE - latest sample at a fixed rate,
+     * ON_CHANGE - every sensor event that rotates the head by more than a dead-band angle
+     */
+    public enum OrientationMode {
+        EVENT, FIXED_RATE, ON_CHANGE
+    }
+
+    private final static double DEFAULT_ORIENTATION_RATE = 1.0;//Hz
+    private final static double DEFAULT_ORIENTATION_DEADBAND = 0.5;//degrees
+    private final static double DEFAULT_IMU_RATE = 100;//Hz
+    private final static int DEFAULT_IMU_MAX_LATENCY = 200;//ms
+    private final static long MAX_EVENT_AGE_NANOS = 1000000000L;
+    private final static long CLOCK_SAMPLE_NANOS = 100000000L;//ROS time is read at most 10 times a second
+    private final static long RECORD_INTERVAL_NANOS = 1000000000L;//orientation in the flight recorder, at most 1 Hz
+    private final static double RECORD_ANGLE = Math.toRadians(10);//...unless the head turns further
+    private final static int DEFAULT_BATTERY_LEVEL_STEP = 1;//%
+    private final static int DEFAULT_BATTERY_MIN_INTERVAL = 60;//s
+    private final static int DEFAULT_BATTERY_WARNING_REPEAT = 30;//min
+    private final static Metrics.Counter SENSOR_EVENTS = Metrics.counter("sensors/events");
+    private final static Metrics.Counter PUBLISHED = Metrics.counter("sensors/published");
 
     private final Context context;
     private final SensorManager sensorManager;
-    private float[] orientationQ = new float[4];
-    private Object orientationLock = new Object();
+    private final QuaternionBuffer orientationQ = new QuaternionBuffer();
+    private MessageRing<PoseStamped> orientationMessages;
+    //published samples are recorded on the sensor lane only
+    private final float[] recordedQ = new float[4];
+    private long recordedAt;
+    private boolean recorded;
+    private OrientationMode orientationMode;
+    private double orientationDeadband;
     private Publisher<PoseStamped> orientationPublisher;
     private Publisher<DiagnosticStatus> batteryPublisher;
     private OrientationListener orientationListener;
     private BatteryListener batteryListener;
-    private CancellableLoop orientationLoop;
+    private ScheduledFuture<?> orientationTask;
+    private Publisher<Imu> imuPublisher;
+    private ImuListener imuListener;
+    private ScheduledFuture<?> imuTask;
     private Publisher<std_msgs.String> speakPublisher;
+    private Subscriber<std_msgs.String> quietHoursSubscriber;
+    private TimeZone timeZone;
     private GlobalState globalState;
-
-    public SensorsNode(Context applicaContext, SensorManager sensorManager, GlobalState globalState) {
+    private final ScheduledExecutorService sensorLane;
+    //ROS time (wall or simulated) sampled on the sensor lane, extrapolated in between
+    private ConnectedNode rosNode;
+    private long rosTimeNanos;
+    private long rosTimeSampledAt;
+    private boolean rosTimeSampled;
+
+    public SensorsNode(Context applicaContext, SensorManager sensorManager, GlobalState globalState, HeadScheduler scheduler) {
         this.context = applicaContext;
         this.sensorManager = sensorManager;
         this.globalState = globalState;
+        this.sensorLane = scheduler.executor(HeadScheduler.Lane.SENSOR);
     }
 
     @Override
@@ -58,41 +135,68 @@ public class SensorsNode extends AbstractNodeMain {
     @Override
     public void onStart(final ConnectedNode connectedNode) {
         super.onStart(connectedNode);
+        rosNode = connectedNode;
         //Orientation
         final Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
         if (sensor != null) {
+            final ParameterTree params = connectedNode.getParameterTree();
+            orientationMode = orientationMode(params.getString(PARAM_ORIENTATION_MODE, OrientationMode.ON_CHANGE.name()));
+            orientationDeadband = Math.toRadians(params.getDouble(PARAM_ORIENTATION_DEADBAND, DEFAULT_ORIENTATION_DEADBAND));
+            final double rate = positive(PARAM_ORIENTATION_RATE,
+                    params.getDouble(PARAM_ORIENTATION_RATE, DEFAULT_ORIENTATION_RATE), DEFAULT_ORIENTATION_RATE);
+
             orientationPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + ORIENTATION_TOPIC), PoseStamped._TYPE);
+            orientationPublisher.setLatchMode(true);//a still head publishes nothing in ON_CHANGE mode
+            orientationMessages = new MessageRing<>(orientationPublisher);
+            for (int i = 0; i < orientationMessages.size(); i++)
+                orientationMessages.get(i).getHeader().setFrameId("/map");
             orientationListener = new OrientationListener(connectedNode, orientationPublisher);
-            sensorManager.registerListener(orientationListener, sensor, SensorManager.SENSOR_DELAY_UI);
-            orientationLoop = new CancellableLoop() {//publishes not so fast
-                @Override
-                protected void loop() throws InterruptedException {
-
-                    Thread.sleep(1000);
-                    if (orientationPublisher == null)
-                        return;
-                    final PoseStamped pose = orientationPublisher.newMessage();
-                    pose.getHeader().setFrameId("/map");
-                    pose.getHeader().setStamp(connectedNode.getCurrentTime());
-                    synchronized (orientationLock) {
-                        pose.getPose().getOrientation().setW(orientationQ[0]);
-                        pose.getPose().getOrientation().setX(orientationQ[1]);
-                        pose.getPose().getOrientation().setY(orientationQ[2]);
-                        pose.getPose().getOrientation().setZ(orientationQ[3]);
+            if (orientationMode == OrientationMode.FIXED_RATE) {
+                sensorManager.registerListener(orientationListener, sensor, (int) (1000000 / rate));
+                final long periodMillis = (long) (1000 / rate);
+                orientationTask = sensorLane.scheduleAtFixedRate(new Runnable() {
+                    private final float[] q = new float[4];
+                    private long publishedStamp;
+
+                    @Override
+                    public void run() {
+                        if (orientationQ.getStamp() == publishedStamp)//no new sample since the last tick
+                            return;
+                        final long stamp = orientationQ.read(q);
+                        publishedStamp = stamp;
+                        publishOrientation(q, stamp);
                     }
-                    orientationPublisher.publish(pose);
-                }
-            };
-            connectedNode.executeCancellableLoop(orientationLoop);
+                }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+            } else
+                sensorManager.registerListener(orientationListener, sensor, SensorManager.SENSOR_DELAY_GAME);
         }
+        //IMU
+        final Sensor gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        final Sensor acceleration = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+        if (sensor != null && gyroscope != null && acceleration != null)
+            startImu(connectedNode, sensor, gyroscope, acceleration);
         //Battery
-        batteryPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + BATTERY_TOPIC), DiagnosticStatus._TYPE);
-        batteryListener = new BatteryListener(batteryPublisher);
-        final Intent batteryIntent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        batteryPublisher.publish(batteryListener.convertIntent(batteryIntent));//publish current
-        context.registerReceiver(batteryListener, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-
+        final ParameterTree params = connectedNode.getParameterTree();
         speakPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + SpeakNode.TOPIC), std_msgs.String._TYPE);
+        batteryPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + BATTERY_TOPIC), DiagnosticStatus._TYPE);
+        batteryPublisher.setLatchMode(true);//changes are rare now
+        batteryListener = new BatteryListener(batteryPublisher, connectedNode.getTopicMessageFactory(), new BatteryMonitor(
+                params.getInteger(PARAM_BATTERY_LEVEL_STEP, DEFAULT_BATTERY_LEVEL_STEP),
+                params.getInteger(PARAM_BATTERY_MIN_INTERVAL, DEFAULT_BATTERY_MIN_INTERVAL) * 1000L,
+                BATTERY_LOW, BATTERY_REARM,
+                params.getInteger(PARAM_BATTERY_WARNING_REPEAT, DEFAULT_BATTERY_WARNING_REPEAT) * 60 * 1000L));
+        context.registerReceiver(batteryListener, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));//sticky, delivers current state
+
+        //Quiet hours of notifications, the topic overrides the parameter
+        timeZone = TimeZone.getTimeZone(params.getString(PARAM_TIME_ZONE, TimeZone.getDefault().getID()));
+        setQuietHours(params.getString(PARAM_QUIET_HOURS, QuietHours.DEFAULT));
+        quietHoursSubscriber = connectedNode.newSubscriber(context.getString(R.string.nodes_prefix) + QUIET_HOURS_TOPIC, std_msgs.String._TYPE);
+        quietHoursSubscriber.addMessageListener(new MessageListener<std_msgs.String>() {
+            @Override
+            public void onNewMessage(std_msgs.String message) {
+                setQuietHours(message.getData());
+            }
+        });
 
     }
 
@@ -100,8 +204,14 @@ public class SensorsNode extends AbstractNodeMain {
     public void onShutdown(Node node) {
         super.onShutdown(node);
 
-        if(orientationLoop != null)
-            orientationLoop.cancel();
+        if (orientationTask != null)
+            orientationTask.cancel(false);
+        if (imuTask != null)
+            imuTask.cancel(false);
+        if (imuListener != null)
+            sensorManager.unregisterListener(imuListener);
+        if (imuPublisher != null)
+            imuPublisher.shutdown();
         if (orientationListener != null)
             sensorManager.unregisterListener(orientationListener);
         if (orientationPublisher != null)
@@ -110,19 +220,156 @@ public class SensorsNode extends AbstractNodeMain {
             context.unregisterReceiver(batteryListener);
         if (batteryPublisher != null)
             batteryPublisher.shutdown();
+        if (quietHoursSubscriber != null)
+            quietHoursSubscriber.shutdown();
+
+    }
+
+    /**
+     * Fuses rotation vector, gyroscope and linear acceleration into sensor_msgs/Imu.
+     * Sensors are batched in hardware for up to ~imu_max_latency ms where supported,
+     * samples are buffered and published in bursts, each with the timestamp of its own gyroscope event.
+     */
+    private void startImu(ConnectedNode connectedNode, Sensor rotation, Sensor gyroscope, Sensor acceleration) {
+        final ParameterTree params = connectedNode.getParameterTree();
+        final double rate = positive(PARAM_IMU_RATE, params.getDouble(PARAM_IMU_RATE, DEFAULT_IMU_RATE), DEFAULT_IMU_RATE);
+        final int maxLatencyMillis = params.getInteger(PARAM_IMU_MAX_LATENCY, DEFAULT_IMU_MAX_LATENCY);
+        final int periodUs = (int) (1000000 / rate);
+
+        imuPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + IMU_TOPIC), Imu._TYPE);
+        final MessageRing<Imu> messages = new MessageRing<>(imuPublisher,
+                Math.max(MessageRing.DEFAULT_SIZE, (int) (rate * maxLatencyMillis / 1000) * 2));
+        for (int i = 0; i < messages.size(); i++)
+            messages.get(i).getHeader().setFrameId(IMU_TOPIC);
+        //room for several bursts: the loop may run late
+        imuListener = new ImuListener(new ImuSampleBuffer((int) (rate * Math.max(maxLatencyMillis, 100) / 1000) * 4));
+        for (Sensor sensor : new Sensor[]{rotation, gyroscope, acceleration}) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                sensorManager.registerListener(imuListener, sensor, periodUs, maxLatencyMillis * 1000);
+            else
+                sensorManager.registerListener(imuListener, sensor, periodUs);
+        }
+        final long periodMillis = Math.max(maxLatencyMillis, 10);
+        imuTask = sensorLane.scheduleAtFixedRate(new Runnable() {
+            private final ImuSampleBuffer.Sample sample = new ImuSampleBuffer.Sample();
+
+            @Override
+            public void run() {
+                while (imuListener.samples.poll(sample)) {
+                    final Imu imu = messages.next();
+                    setEventTime(imu.getHeader().getStamp(), sample.stamp);
+                    imu.getOrientation().setW(sample.orientation[0]);
+                    imu.getOrientation().setX(sample.orientation[1]);
+                    imu.getOrientation().setY(sample.orientation[2]);
+                    imu.getOrientation().setZ(sample.orientation[3]);
+                    imu.getAngularVelocity().setX(sample.angularVelocity[0]);
+                    imu.getAngularVelocity().setY(sample.angularVelocity[1]);
+                    imu.getAngularVelocity().setZ(sample.angularVelocity[2]);
+                    imu.getLinearAcceleration().setX(sample.linearAcceleration[0]);
+                    imu.getLinearAcceleration().setY(sample.linearAcceleration[1]);
+                    imu.getLinearAcceleration().setZ(sample.linearAcceleration[2]);
+                    imuPublisher.publish(imu);
+                    PUBLISHED.increment();
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
 
+    private static OrientationMode orientationMode(String name) {
+        try {
+            return OrientationMode.valueOf(name.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            Log.e("SensorsNode", "bad " + PARAM_ORIENTATION_MODE + ": " + name + ", using on_change");
+            return OrientationMode.ON_CHANGE;
+        }
     }
 
-    private void setOrientationQ(float[] q) {
-        synchronized (orientationLock) {
-            this.orientationQ = q;
+    /**
+     * A rate or period parameter, the default if it is not positive
+     */
+    private static double positive(String param, double value, double defaultValue) {
+        if (value > 0)
+            return value;
+        Log.e("SensorsNode", "bad " + param + ": " + value + ", using " + defaultValue);
+        return defaultValue;
+    }
+
+    private void setQuietHours(String specification) {
+        try {
+            globalState.setQuietHours(QuietHours.parse(specification, timeZone));
+        } catch (IllegalArgumentException e) {
+            Log.e("SensorsNode", "bad quiet hours: " + specification, e);
         }
     }
 
+    private void publishOrientation(float[] q, long eventNanos) {
+        final PoseStamped pose = orientationMessages.next();
+        setEventTime(pose.getHeader().getStamp(), eventNanos);
+        pose.getPose().getOrientation().setW(q[0]);
+        pose.getPose().getOrientation().setX(q[1]);
+        pose.getPose().getOrientation().setY(q[2]);
+        pose.getPose().getOrientation().setZ(q[3]);
+        orientationPublisher.publish(pose);
+        PUBLISHED.increment();
+        final long now = System.nanoTime();
+        if (!recorded || now - recordedAt >= RECORD_INTERVAL_NANOS || angleBetween(q, recordedQ) > RECORD_ANGLE) {
+            FlightRecorder.record(FlightRecorder.ORIENTATION, q[0], q[1], q[2], q[3]);
+            System.arraycopy(q, 0, recordedQ, 0, 4);
+            recordedAt = now;
+            recorded = true;
+        }
+    }
+
+    /**
+     * Converts {@link SensorEvent#timestamp} (elapsed realtime on most devices) to the node's ROS time in place,
+     * on the sensor lane only
+     */
+    private void setEventTime(Time time, long eventNanos) {
+        final long now = System.nanoTime();
+        if (!rosTimeSampled || now - rosTimeSampledAt >= CLOCK_SAMPLE_NANOS) {//getCurrentTime allocates
+            rosTimeNanos = rosNode.getCurrentTime().totalNsecs();
+            rosTimeSampledAt = now;
+            rosTimeSampled = true;
+        }
+        long rosNanos = rosTimeNanos + (now - rosTimeSampledAt);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            final long age = SystemClock.elapsedRealtimeNanos() - eventNanos;
+            if (age >= 0 && age <= MAX_EVENT_AGE_NANOS)//otherwise sensor uses another time base
+                rosNanos -= age;
+        }
+        time.secs = (int) (rosNanos / 1000000000L);
+        time.nsecs = (int) (rosNanos % 1000000000L);
+    }
+
+    /**
+     * Rotation angle in radians between two unit quaternions
+     */
+    static double angleBetween(float[] q1, float[] q2) {
+        double dot = Math.abs(q1[0] * q2[0] + q1[1] * q2[1] + q1[2] * q2[2] + q1[3] * q2[3]);
+        return 2 * Math.acos(Math.min(1.0, dot));
+    }
+
     private final class OrientationListener implements SensorEventListener {
 
         private ConnectedNode node;
         private Publisher<geometry_msgs.PoseStamped> publisher;
+        private final float[] quaternion = new float[4];
+        private final float[] publishedQ = new float[4];
+        //the sample publishLatest actually sent, the dead-band is measured from it
+        private final QuaternionBuffer sentQ = new QuaternionBuffer();
+        private final AtomicBoolean posted = new AtomicBoolean();
+        //publishes the latest sample, events arriving while it waits on the lane are merged; posting allocates nothing
+        private final Runnable publishLatest = new HeadScheduler.Task(new Runnable() {
+            private final float[] q = new float[4];
+
+            @Override
+            public void run() {
+                posted.set(false);
+                final long stamp = orientationQ.read(q);
+                publishOrientation(q, stamp);
+                sentQ.write(q, stamp);
+            }
+        });
 
         public OrientationListener(ConnectedNode node, Publisher<geometry_msgs.PoseStamped> publisher) {
             this.node = node;
@@ -131,10 +378,53 @@ public class SensorsNode extends AbstractNodeMain {
 
         @Override
         public void onSensorChanged(SensorEvent event) {
+            SENSOR_EVENTS.increment();
             if (Sensor.TYPE_ROTATION_VECTOR == event.sensor.getType()) {
-                float[] quaternion = new float[4];
                 SensorManager.getQuaternionFromVector(quaternion, event.values);
-                setOrientationQ(quaternion);
+                orientationQ.write(quaternion, event.timestamp);
+                if (orientationMode == OrientationMode.FIXED_RATE)
+                    return;
+                if (orientationMode == OrientationMode.ON_CHANGE && sentQ.read(publishedQ) != 0
+                        && angleBetween(publishedQ, quaternion) < orientationDeadband)
+                    return;
+                if (posted.compareAndSet(false, true))
+                    sensorLane.execute(publishLatest);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    }
+
+    /**
+     * Keeps the latest orientation and acceleration, every gyroscope event produces a fused sample
+     */
+    private static final class ImuListener implements SensorEventListener {
+
+        private final ImuSampleBuffer samples;
+        private final float[] orientation = new float[]{1, 0, 0, 0};
+        private final float[] angularVelocity = new float[3];
+        private final float[] linearAcceleration = new float[3];
+
+        public ImuListener(ImuSampleBuffer samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            SENSOR_EVENTS.increment();
+            switch (event.sensor.getType()) {
+                case Sensor.TYPE_ROTATION_VECTOR:
+                    SensorManager.getQuaternionFromVector(orientation, event.values);
+                    break;
+                case Sensor.TYPE_LINEAR_ACCELERATION:
+                    System.arraycopy(event.values, 0, linearAcceleration, 0, linearAcceleration.length);
+                    break;
+                case Sensor.TYPE_GYROSCOPE:
+                    System.arraycopy(event.values, 0, angularVelocity, 0, angularVelocity.length);
+                    samples.add(event.timestamp, orientation, angularVelocity, linearAcceleration);
+                    break;
             }
         }
 
@@ -146,39 +436,95 @@ public class SensorsNode extends AbstractNodeMain {
     private final class BatteryListener extends BroadcastReceiver {
 
         private final Publisher<DiagnosticStatus> batteryPublisher;
+        private final MessageFactory messageFactory;
+        private final BatteryMonitor monitor;
 
 
-        public BatteryListener(Publisher<DiagnosticStatus> batteryPublisher) {
+        public BatteryListener(Publisher<DiagnosticStatus> batteryPublisher, MessageFactory messageFactory, BatteryMonitor monitor) {
 
             this.batteryPublisher = batteryPublisher;
+            this.messageFactory = messageFactory;
+            this.monitor = monitor;
         }
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-
-            final DiagnosticStatus message = convertIntent(intent);
-            batteryPublisher.publish(message);
-
-            if (message.getLevel() < BATTERY_LOW && globalState.canNotify()) {
-                final std_msgs.String messageLow = speakPublisher.newMessage();
-                messageLow.setData(context.getString(R.string.charge_me));
-                speakPublisher.publish(messageLow);
-            }
+        public void onReceive(final Context context, final Intent intent) {
+            sensorLane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    update(context, intent);
+                }
+            });
         }
 
-        public DiagnosticStatus convertIntent(Intent intent) {
+        /**
+         * On the sensor lane, the monitor is confined to it
+         */
+        private void update(Context context, Intent intent) {
+
             int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
             boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
                     status == BatteryManager.BATTERY_STATUS_FULL;
             int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
             int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
             byte batteryPct = (byte) Math.round(level * 100 / (float) scale);
+            int health = intent.getIntExtra(BatteryManager.EXTRA_HEALTH, BatteryManager.BATTERY_HEALTH_UNKNOWN);
+            final long now = System.currentTimeMillis();
+            FlightRecorder.record(FlightRecorder.BATTERY, batteryPct, intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0),
+                    intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f, isCharging ? 1 : 0);
+
+            if (monitor.shouldPublish(batteryPct, isCharging, health, now))
+                batteryPublisher.publish(convertIntent(intent, isCharging, batteryPct, health));
+
+            //the monitor tracks charging and re-arming in quiet hours too, only the warning is held back
+            if (monitor.shouldWarn(batteryPct, isCharging, now) && globalState.canNotify()) {
+                final std_msgs.String messageLow = speakPublisher.newMessage();
+                messageLow.setData(context.getString(R.string.charge_me));
+                speakPublisher.publish(messageLow);
+            }
+        }
 
+        private DiagnosticStatus convertIntent(Intent intent, boolean isCharging, byte batteryPct, int health) {
             final DiagnosticStatus message = batteryPublisher.newMessage();
             message.setName(isCharging ? BATTERY_CHARGING : BATTERY_DISCHARGING);
             message.setLevel(batteryPct);
+            message.setMessage(batteryPct + "%");
+
+            final List<KeyValue> values = new ArrayList<>();
+            values.add(keyValue(BATTERY_PERCENTAGE, String.valueOf(batteryPct)));
+            values.add(keyValue(BATTERY_VOLTAGE, String.valueOf(intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, -1))));//mV
+            values.add(keyValue(BATTERY_TEMPERATURE, String.valueOf(intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f)));//C
+            values.add(keyValue(BATTERY_HEALTH, healthName(health)));
+            values.add(keyValue(BATTERY_PLUGGED, String.valueOf(intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0)));
+            message.setValues(values);
 
             return message;
         }
+
+        private KeyValue keyValue(String key, String value) {
+            final KeyValue keyValue = messageFactory.newFromType(KeyValue._TYPE);
+            keyValue.setKey(key);
+            keyValue.setValue(value);
+            return keyValue;
+        }
+
+        private String healthName(int health) {
+            switch (health) {
+                case BatteryManager.BATTERY_HEALTH_GOOD:
+                    return "good";
+                case BatteryManager.BATTERY_HEALTH_OVERHEAT:
+                    return "overheat";
+                case BatteryManager.BATTERY_HEALTH_DEAD:
+                    return "dead";
+                case BatteryManager.BATTERY_HEALTH_OVER_VOLTAGE:
+                    return "over voltage";
+                case BatteryManager.BATTERY_HEALTH_UNSPECIFIED_FAILURE:
+                    return "failure";
+                case BatteryManager.BATTERY_HEALTH_COLD:
+                    return "cold";
+                default:
+                    return "unknown";
+            }
+        }
     }
 }
@@ -0,0 +1,119 @@
+package com.github.chaosal.androidroshead;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cmu.pocketsphinx.Config;
+import edu.cmu.pocketsphinx.Decoder;
+import edu.cmu.pocketsphinx.FsgModel;
+import edu.cmu.pocketsphinx.RecognitionListener;
+
+/**
+ * Process-wide recognizer, so node restarts (e.g. after a master reconnection) reuse the loaded model
+ * and compiled searches instead of parsing the model again. Model files are memory-mapped from the
+ * installed model directory, pages are shared with the page cache rather than copied to the heap.
+ */
+public final class SharedRecognizer {
+
+    private static AudioRecognizer recognizer;
+    private static File modelDir;
+    private static final Map<String, String> searches = new HashMap<>();//name -> source
+    private static String grammarSearch;//switched to by the last node
+
+    private SharedRecognizer() {
+    }
+
+    /**
+     * @return the recognizer created from the model directory before or null
+     */
+    public static synchronized AudioRecognizer get(File dir) {
+        return recognizer != null && dir.equals(modelDir) ? recognizer : null;
+    }
+
+    /**
+     * @param keywordThreshold keyphrase detection threshold, balances false alarms and misses
+     */
+    public static synchronized AudioRecognizer obtain(File dir, String acousticModel, String dictionary,
+                                                       float keywordThreshold) throws IOException {
+        if (get(dir) != null)
+            return recognizer;
+        shutdown();
+        final Config config = Decoder.defaultConfig();
+        config.setString("-hmm", new File(dir, acousticModel).getPath());
+        config.setString("-dict", new File(dir, dictionary).getPath());
+        // To log raw audio set -rawlogdir (takes a lot of space on the device)
+        config.setFloat("-kws_threshold", keywordThreshold);
+        // Use context-independent phonetic search, context-dependent is too slow for mobile
+        config.setBoolean("-allphone_ci", true);
+        // Map model files instead of reading them into memory
+        config.setBoolean("-mmap", true);
+        recognizer = new AudioRecognizer(config);
+        modelDir = dir;
+        return recognizer;
+    }
+
+    /**
+     * Adds a keyphrase search unless the same one was added already
+     */
+    public static synchronized void addKeyphraseSearch(String name, String phrase) {
+        if (phrase.equals(searches.get(name)))
+            return;
+        recognizer.addKeyphraseSearch(name, phrase);
+        searches.put(name, phrase);
+    }
+
+    /**
+     * Adds a grammar search unless the same file was added already
+     */
+    public static synchronized void addGrammarSearch(String name, File grammar) {
+        if (grammar.getPath().equals(searches.get(name)))
+            return;
+        recognizer.addGrammarSearch(name, grammar);
+        searches.put(name, grammar.getPath());
+    }
+
+    public static synchronized boolean hasSearch(String name) {
+        return searches.containsKey(name);
+    }
+
+    /**
+     * @return the grammar search switched to last or null
+     */
+    public static synchronized String getGrammarSearch() {
+        return grammarSearch;
+    }
+
+    public static synchronized void setGrammarSearch(String name) {
+        grammarSearch = name;
+    }
+
+    /**
+     * Adds a compiled grammar search, the recognizer must be stopped
+     */
+    public static synchronized void setFsgSearch(String name, FsgModel fsg) {
+        recognizer.getDecoder().setFsg(name, fsg);
+        searches.put(name, name);
+    }
+
+    /**
+     * Stops recognition for the listener, the recognizer is kept for the next start
+     */
+    public static synchronized void release(RecognitionListener listener) {
+        if (recognizer == null)
+            return;
+        recognizer.removeListener(listener);
+        recognizer.cancel();
+    }
+
+    public static synchronized void shutdown() {
+        if (recognizer == null)
+            return;
+        recognizer.shutdown();
+        recognizer = null;
+        modelDir = null;
+        searches.clear();
+        grammarSearch = null;
+    }
+}
@@ -2,6 +2,7 @@ package com.github.chaosal.androidroshead;
 
 import android.content.Context;
 import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
 import android.util.Log;
 
 import org.ros.message.MessageListener;
@@ -9,22 +10,82 @@ import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
+import org.ros.node.parameter.ParameterTree;
 import org.ros.node.topic.Subscriber;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
 
 
+/**
+ * Speaks texts from /speak (normal priority), /speak/urgent and /speak/background topics
+ * one by one through a bounded {@link SpeechQueue} played by a {@link SpeechPlayer}.
+ * Spoken texts are synthesised to an {@link UtteranceCache} while the engine is idle,
+ * known phrases are synthesised at start, so repeated phrases are played back from files.
+ */
 public class SpeakNode extends AbstractNodeMain implements TextToSpeech.OnInitListener {
 
     public final static String TOPIC = "/speak";
+    public final static String URGENT_TOPIC = TOPIC + "/urgent";
+    public final static String BACKGROUND_TOPIC = TOPIC + "/background";
+    public final static String MUTE_TOPIC = TOPIC + "/mute";
+    public final static String PARAM_QUEUE_SIZE = "~queue_size";
+    public final static String PARAM_SPEECH_RATE = "~speech_rate";
+    public final static String PARAM_PITCH = "~pitch";
+    public final static String PARAM_CACHE_SIZE = "~cache_size";
+    public final static String PARAM_WARMUP_PHRASES = "~warmup_phrases";
+    private final static int DEFAULT_QUEUE_SIZE = 8;
+    private final static int DEFAULT_CACHE_SIZE = 16;//MB
+    private final static String SYNTHESIS_ID_PREFIX = "cache:";
+    private final static Locale LOCALE = new Locale("ru");
+    private final static Metrics.Histogram SYNTHESIS = Metrics.histogram("speak/synthesis");
     private TextToSpeech tts;
     private Subscriber<std_msgs.String> speakSubscriber;
+    private Subscriber<std_msgs.String> urgentSubscriber;
+    private Subscriber<std_msgs.String> backgroundSubscriber;
+    private Subscriber<std_msgs.Bool> muteSubscriber;
     private Context context;
     private GlobalState globalState;
+    private final ScheduledExecutorService audioLane;
+    private SpeechPlayer player;
+    private UtteranceCache cache;
+    //guarded by the player
+    private final ArrayDeque<String> toSynthesise = new ArrayDeque<>();
+    private String synthesising;
+    private long synthesisStartedAt;
+    private float speechRate;
+    private float pitch;
+    private List<?> warmupPhrases;
+    private final SpeechPlayer.Engine engine = new SpeechPlayer.Engine() {
+        @Override
+        public boolean speak(SpeechQueue.Utterance utterance) {
+            final HashMap<String, String> params = new HashMap<>();
+            params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, String.valueOf(utterance.getId()));
+            String text = utterance.getText();
+            final String key = cacheKey(text);
+            final File synthesised = cache.get(key);
+            if (synthesised != null) {
+                tts.addSpeech(key, synthesised.getPath());
+                text = key;//played from the file mapped to the key
+            } else if (!key.equals(synthesising) && !toSynthesise.contains(text))
+                toSynthesise.add(text);
+            if (tts.speak(text, TextToSpeech.QUEUE_ADD, params) != TextToSpeech.SUCCESS) {
+                Log.e(TOPIC, "tts rejected utterance " + utterance.getId() + ": " + utterance.getText());
+                return false;
+            }
+            return true;
+        }
+    };
 
-    public SpeakNode(Context applicationContext, GlobalState globalState) {
+    public SpeakNode(Context applicationContext, GlobalState globalState, HeadScheduler scheduler) {
         this.context = applicationContext;
         this.globalState = globalState;
+        this.audioLane = scheduler.executor(HeadScheduler.Lane.AUDIO);
     }
 
     @Override
@@ -35,39 +96,187 @@ public class SpeakNode extends AbstractNodeMain implements TextToSpeech.OnInitLi
     @Override
     public void onStart(ConnectedNode connectedNode) {
         super.onStart(connectedNode);
-        speakSubscriber =
-                connectedNode.newSubscriber(context.getString(R.string.nodes_prefix) + TOPIC, std_msgs.String._TYPE);
-        tts = new TextToSpeech(context, this);
-        tts.setLanguage(new Locale("ru"));
-        globalState.setSpeakingStateResolver(new GlobalState.StateResolver<Boolean>() {
+        final String prefix = context.getString(R.string.nodes_prefix);
+        final ParameterTree params = connectedNode.getParameterTree();
+        speechRate = (float) params.getDouble(PARAM_SPEECH_RATE, 1.0);
+        pitch = (float) params.getDouble(PARAM_PITCH, 1.0);
+        warmupPhrases = params.getList(PARAM_WARMUP_PHRASES, new ArrayList<>());
+        cache = new UtteranceCache(new File(context.getCacheDir(), "tts"),
+                params.getInteger(PARAM_CACHE_SIZE, DEFAULT_CACHE_SIZE) * 1024L * 1024L);
+        speakSubscriber = connectedNode.newSubscriber(prefix + TOPIC, std_msgs.String._TYPE);
+        urgentSubscriber = connectedNode.newSubscriber(prefix + URGENT_TOPIC, std_msgs.String._TYPE);
+        backgroundSubscriber = connectedNode.newSubscriber(prefix + BACKGROUND_TOPIC, std_msgs.String._TYPE);
+        //muted: queued texts wait, the utterance being spoken is finished
+        muteSubscriber = connectedNode.newSubscriber(prefix + MUTE_TOPIC, std_msgs.Bool._TYPE);
+        muteSubscriber.addMessageListener(new MessageListener<std_msgs.Bool>() {
+            @Override
+            public void onNewMessage(std_msgs.Bool message) {
+                Log.i(TOPIC, message.getData() ? "muted" : "unmuted");
+                globalState.setMuted(message.getData());
+            }
+        });
+        player = new SpeechPlayer(new SpeechQueue(params.getInteger(PARAM_QUEUE_SIZE, DEFAULT_QUEUE_SIZE)), globalState, engine);
+        final SpeechPlayer player = this.player;
+        Metrics.gauge("speak/queue_depth", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return player.getQueued();
+            }
+        });
+        final UtteranceCache cache = this.cache;
+        Metrics.gauge("speak/cache_hits", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return cache.getHits();
+            }
+        });
+        Metrics.gauge("speak/cache_misses", new Metrics.Gauge() {
             @Override
-            public Boolean getState() {
-                return tts.isSpeaking();
+            public long get() {
+                return cache.getMisses();
             }
         });
+        tts = new TextToSpeech(context, this);
+        tts.setLanguage(LOCALE);
+        tts.setSpeechRate(speechRate);
+        tts.setPitch(pitch);
     }
 
     @Override
     public void onInit(int status) {
         if (status == TextToSpeech.SUCCESS) {
             //tts.speak(context.getString(R.string.hello), TextToSpeech.QUEUE_FLUSH, null);
-            speakSubscriber.addMessageListener(new MessageListener<std_msgs.String>() {
+            tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+                @Override
+                public void onStart(String utteranceId) {
+                    if (!utteranceId.startsWith(SYNTHESIS_ID_PREFIX))
+                        player.onUtteranceStarted();
+                }
+
+                @Override
+                public void onDone(String utteranceId) {
+                    finished(utteranceId, true);
+                }
+
                 @Override
-                public void onNewMessage(std_msgs.String string) {
-                    if(!globalState.isListening()) {
-                        globalState.setSpeaking(true);
-                        tts.speak(string.getData(), TextToSpeech.QUEUE_FLUSH, null);
-                    }
+                public void onError(String utteranceId) {
+                    Log.e(TOPIC, (utteranceId.startsWith(SYNTHESIS_ID_PREFIX) ? "error synthesising utterance "
+                            : "error speaking utterance ") + utteranceId);
+                    finished(utteranceId, false);
+                }
+
+                /**
+                 * The next utterance is handed to the engine on the audio lane, not on the engine's thread
+                 */
+                private void finished(final String utteranceId, final boolean success) {
+                    audioLane.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (utteranceId.startsWith(SYNTHESIS_ID_PREFIX))
+                                onSynthesisFinished(utteranceId.substring(SYNTHESIS_ID_PREFIX.length()), success);
+                            else
+                                onUtteranceFinished();
+                        }
+                    });
                 }
             });
+            synchronized (player) {
+                toSynthesise.add(context.getString(R.string.charge_me));
+                toSynthesise.add(context.getString(R.string.hello));
+                for (Object phrase : warmupPhrases)
+                    toSynthesise.add(phrase.toString());
+                synthesiseNext();
+            }
+            speakSubscriber.addMessageListener(new QueueingListener(SpeechQueue.Priority.NORMAL));
+            urgentSubscriber.addMessageListener(new QueueingListener(SpeechQueue.Priority.HIGH));
+            backgroundSubscriber.addMessageListener(new QueueingListener(SpeechQueue.Priority.LOW));
         } else
             Log.e(TOPIC, context.getString(R.string.error_tts_init));
     }
 
+    private void onUtteranceFinished() {
+        synchronized (player) {
+            player.onUtteranceFinished();
+            synthesiseNext();
+        }
+    }
+
+    private void onSynthesisFinished(String key, boolean success) {
+        synchronized (player) {
+            if (success) {
+                cache.put(key);
+                SYNTHESIS.recordSince(synthesisStartedAt);
+            }
+            else if (!cache.pendingFile(key).delete())
+                cache.pendingFile(key).deleteOnExit();
+            synthesising = null;
+            player.speakNext();
+            synthesiseNext();
+        }
+    }
+
+    private String cacheKey(String text) {
+        return UtteranceCache.key(text, LOCALE.toString(), speechRate, pitch);
+    }
+
+    /**
+     * Synthesises the next missing phrase to the cache while nothing is spoken:
+     * synthesis shares the engine queue with speech and would delay it otherwise
+     */
+    private void synthesiseNext() {
+        if (synthesising != null || !player.isIdle())
+            return;
+        while (!toSynthesise.isEmpty()) {
+            final String text = toSynthesise.poll();
+            final String key = cacheKey(text);
+            if (cache.contains(key))
+                continue;
+            final HashMap<String, String> params = new HashMap<>();
+            params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, SYNTHESIS_ID_PREFIX + key);
+            if (tts.synthesizeToFile(text, params, cache.pendingFile(key).getPath()) == TextToSpeech.SUCCESS) {
+                synthesising = key;
+                synthesisStartedAt = System.nanoTime();
+                return;
+            }
+        }
+    }
+
+    private final class QueueingListener implements MessageListener<std_msgs.String> {
+
+        private final SpeechQueue.Priority priority;
+
+        private QueueingListener(SpeechQueue.Priority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public void onNewMessage(final std_msgs.String string) {
+            audioLane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!player.offer(string.getData(), priority))
+                        Log.w(TOPIC, "speech queue is full, dropped: " + string.getData());
+                }
+            });
+        }
+    }
+
     @Override
     public void onShutdown(Node node) {
         super.onShutdown(node);
         speakSubscriber.shutdown();
+        urgentSubscriber.shutdown();
+        backgroundSubscriber.shutdown();
+        muteSubscriber.shutdown();
+        if (player != null) {
+            player.shutdown();
+            synchronized (player) {
+                toSynthesise.clear();
+            }
+        }
+        if (cache != null)
+            Log.i(TOPIC, String.format("utterance cache hits: %d, misses: %d, evictions: %d, size: %d bytes",
+                    cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.getBytes()));
         if (tts != null) {
             tts.stop();
             tts.shutdown();
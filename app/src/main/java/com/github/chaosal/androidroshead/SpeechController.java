@@ -0,0 +1,171 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wake word to command to spoken response flow, free of Android and ROS so it can be replayed on a plain JVM.
+ * Hypotheses are filtered by {@link ConfidenceScorer}s tuned from what follows them, accepted commands go to
+ * a {@link CommandDispatcher} and its responses to the speaker. Recognizer callbacks are expected on one thread.
+ */
+public class SpeechController implements CommandDispatcher.ResponseListener {
+
+    private final static Metrics.Counter WAKE_WORDS = Metrics.counter("speech/wake_words");
+    private final static Metrics.Counter WAKE_WORDS_REJECTED = Metrics.counter("speech/wake_words_rejected");
+    private final static Metrics.Counter COMMANDS = Metrics.counter("speech/commands");
+    private final static Metrics.Counter COMMANDS_REJECTED = Metrics.counter("speech/commands_rejected");
+    private final static Metrics.Histogram COMMAND_LATENCY = Metrics.histogram("speech/wake_to_command");
+
+    public interface Recognizer {
+        /**
+         * Restarts the keyphrase search
+         */
+        void listenForWakeWord();
+
+        /**
+         * Starts the command search after the wake word
+         */
+        void listenForCommand();
+    }
+
+    public interface Speaker {
+        void speak(String text);
+    }
+
+    /**
+     * What the controller heard and decided, for topics and logs
+     */
+    public interface Events {
+        void onPartialResult(String text);
+
+        void onWakeWord(String text, int score, double frameScore, double confidence, boolean accepted);
+
+        void onCommand(String text, int score, int frames, double confidence, boolean accepted, long latencyNanos);
+
+        void onCommandError(String command, Exception e);
+    }
+
+    private final GlobalState globalState;
+    private final String wakeWord;
+    private final ConfidenceScorer wakeScorer;
+    private final ConfidenceScorer commandScorer;
+    private final Recognizer recognizer;
+    private final Speaker speaker;
+    private final Events events;
+    private volatile CommandDispatcher dispatcher;
+    private String lastPartial;
+    private double wakeScore = Double.NaN;
+    private long wakeAt;
+    private final Map<String, Double> commandScores = new HashMap<>();//dispatched command -> frame score
+
+    public SpeechController(GlobalState globalState, String wakeWord, ConfidenceScorer wakeScorer,
+                            ConfidenceScorer commandScorer, Recognizer recognizer, Speaker speaker, Events events) {
+        this.globalState = globalState;
+        this.wakeWord = wakeWord;
+        this.wakeScorer = wakeScorer;
+        this.commandScorer = commandScorer;
+        this.recognizer = recognizer;
+        this.speaker = speaker;
+        this.events = events;
+    }
+
+    /**
+     * The dispatcher is built with the controller as its listener
+     */
+    public void setDispatcher(CommandDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * @param frames length of the wake word if the text is the wake word
+     */
+    public void onPartialResult(String text, int score, int frames) {
+        if (!text.equals(lastPartial)) {
+            lastPartial = text;
+            events.onPartialResult(text);
+        }
+        //called many times per second: state is a single volatile read
+        if (globalState.isSpeaking() || !text.equals(wakeWord))
+            return;
+        final double frameScore = ConfidenceScorer.frameScore(score, frames);
+        final double confidence = wakeScorer.confidence(frameScore);
+        final boolean accepted = wakeScorer.isAccepted(confidence);
+        events.onWakeWord(text, score, frameScore, confidence, accepted);
+        if (accepted) {
+            WAKE_WORDS.increment();
+            wakeScore = frameScore;
+            wakeAt = System.nanoTime();
+            recognizer.listenForCommand();
+        } else {
+            WAKE_WORDS_REJECTED.increment();
+            wakeScorer.feedback(frameScore, false);
+            recognizer.listenForWakeWord();//clears the keyphrase detection
+        }
+    }
+
+    /**
+     * End of speech or timeout of the command search
+     */
+    public void onCommandEnded() {
+        recognizer.listenForWakeWord();
+    }
+
+    /**
+     * Final hypothesis of the command search
+     *
+     * @param text null if nothing was recognised
+     */
+    public void onCommandResult(String text, int score, int frames) {
+        if (text == null || text.equals(wakeWord)) {
+            wakeFeedback(false);//woken up for nothing
+            return;
+        }
+        final double frameScore = ConfidenceScorer.frameScore(score, frames);
+        final double confidence = commandScorer.confidence(frameScore);
+        final boolean accepted = commandScorer.isAccepted(confidence);
+        events.onCommand(text, score, frames, confidence, accepted, System.nanoTime() - wakeAt);
+        wakeFeedback(accepted);
+        if (!accepted) {
+            COMMANDS_REJECTED.increment();
+            commandScorer.feedback(frameScore, false);
+            return;
+        }
+        COMMANDS.increment();
+        COMMAND_LATENCY.recordSince(wakeAt);
+        synchronized (commandScores) {
+            commandScores.put(text, frameScore);
+        }
+        if (!dispatcher.dispatch(text)) {
+            synchronized (commandScores) {
+                commandScores.remove(text);
+            }
+            events.onCommandError(text, new IllegalStateException("command dropped"));
+        }
+    }
+
+    private void wakeFeedback(boolean accepted) {
+        if (Double.isNaN(wakeScore))
+            return;
+        wakeScorer.feedback(wakeScore, accepted);
+        wakeScore = Double.NaN;
+    }
+
+    @Override
+    public void onResponse(String command, String response) {
+        final Double score;
+        synchronized (commandScores) {
+            score = commandScores.remove(command);
+        }
+        if (score != null)//answered: the command was heard right
+            commandScorer.feedback(score, true);
+        speaker.speak(response);
+    }
+
+    @Override
+    public void onError(String command, Exception e) {
+        synchronized (commandScores) {
+            commandScores.remove(command);//the failure response is not an answer
+        }
+        events.onCommandError(command, e);
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Hands queued utterances to a speech engine one by one. Nothing is spoken while the robot is listening or muted,
+ * queued utterances are replayed on the {@link GlobalState} transition that ends it.
+ * Free of Android, the engine is {@link SpeakNode}'s TextToSpeech on the device and a fake in JVM tests.
+ * The player is its own lock, engine callbacks may synchronize on it.
+ */
+public class SpeechPlayer {
+
+    private final static int HOLDING_STATES = GlobalState.LISTENING | GlobalState.MUTED;
+    private final static Metrics.Counter UTTERANCES = Metrics.counter("speak/utterances");
+
+    public interface Engine {
+        /**
+         * Starts speaking, {@link #onUtteranceFinished} must follow
+         *
+         * @return false if the engine rejected the utterance
+         */
+        boolean speak(SpeechQueue.Utterance utterance);
+    }
+
+    private final SpeechQueue queue;
+    private final GlobalState globalState;
+    private final Engine engine;
+    private SpeechQueue.Utterance current;
+    private long startedAt;
+    private final GlobalState.StateObserver stateObserver = new GlobalState.StateObserver() {
+        @Override
+        public void onStateChanged(int state) {
+            if ((state & HOLDING_STATES) == 0)
+                speakNext();//checks the state again under the lock
+        }
+    };
+
+    public SpeechPlayer(SpeechQueue queue, GlobalState globalState, Engine engine) {
+        this.queue = queue;
+        this.globalState = globalState;
+        this.engine = engine;
+        globalState.addObserver(stateObserver);
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public synchronized boolean offer(String text, SpeechQueue.Priority priority) {
+        if (current != null && current.getText().equals(text))
+            return true;//is being spoken right now
+        final boolean queued = queue.offer(text, priority);
+        speakNext();
+        return queued;
+    }
+
+    public void onUtteranceStarted() {
+        globalState.setSpeaking(true);
+    }
+
+    public synchronized void onUtteranceFinished() {
+        if (current != null)
+            FlightRecorder.record(FlightRecorder.TTS_STOP, (System.nanoTime() - startedAt) / 1e6f, 0, 0, 0);
+        current = null;
+        globalState.setSpeaking(false);
+        speakNext();
+    }
+
+    /**
+     * Nothing is spoken or waiting to be
+     */
+    public synchronized boolean isIdle() {
+        return current == null && queue.size() == 0;
+    }
+
+    /**
+     * Hands the next queued utterance to the engine unless one is being spoken or the robot is listening or muted.
+     * Utterances the engine rejects are skipped, the engine reports them.
+     */
+    public synchronized void speakNext() {
+        if (current != null || (globalState.getState() & HOLDING_STATES) != 0)
+            return;
+        while (queue.size() > 0) {
+            current = queue.poll();
+            startedAt = System.nanoTime();
+            FlightRecorder.record(FlightRecorder.TTS_START, queue.size(), 0, 0, 0, current.getText());
+            if (engine.speak(current)) {
+                UTTERANCES.increment();
+                return;
+            }
+            current = null;
+        }
+    }
+
+    /**
+     * Utterances waiting to be spoken
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized void shutdown() {
+        globalState.removeObserver(stateObserver);
+        queue.clear();
+    }
+}
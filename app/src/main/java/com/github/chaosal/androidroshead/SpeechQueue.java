@@ -0,0 +1,123 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue of utterances waiting for the tts engine.
+ * Higher priority goes first, FIFO within a priority. Identical texts are coalesced into one utterance.
+ * When full: HIGH evicts the oldest utterance of the lowest queued priority,
+ * NORMAL evicts the oldest LOW one, or the oldest NORMAL one if there is no LOW, LOW is rejected.
+ */
+public class SpeechQueue {
+
+    public enum Priority {
+        LOW, NORMAL, HIGH
+    }
+
+    public static class Utterance {
+        private final String text;
+        private Priority priority;
+        private final long id;
+
+        private Utterance(String text, Priority priority, long id) {
+            this.text = text;
+            this.priority = priority;
+            this.id = id;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Unique within the queue, used as tts utterance id
+         */
+        public long getId() {
+            return id;
+        }
+    }
+
+    private final int capacity;
+    private final List<Utterance> utterances;
+    private long nextId;
+    private long dropped;
+    private long coalesced;
+
+    public SpeechQueue(int capacity) {
+        this.capacity = capacity;
+        this.utterances = new ArrayList<>(capacity);
+    }
+
+    /**
+     * @return false if the utterance was rejected
+     */
+    public synchronized boolean offer(String text, Priority priority) {
+        for (Utterance queued : utterances) {
+            if (queued.text.equals(text)) {
+                if (priority.compareTo(queued.priority) > 0)
+                    queued.priority = priority;
+                coalesced++;
+                return true;
+            }
+        }
+        if (utterances.size() >= capacity) {
+            final Utterance victim = findVictim(priority);
+            if (victim == null) {
+                dropped++;
+                return false;
+            }
+            utterances.remove(victim);
+            dropped++;
+        }
+        utterances.add(new Utterance(text, priority, nextId++));
+        return true;
+    }
+
+    /**
+     * @return the next utterance to speak or null if the queue is empty
+     */
+    public synchronized Utterance poll() {
+        Utterance next = null;
+        for (Utterance queued : utterances) {
+            if (next == null || queued.priority.compareTo(next.priority) > 0)
+                next = queued;
+        }
+        if (next != null)
+            utterances.remove(next);
+        return next;
+    }
+
+    public synchronized void clear() {
+        utterances.clear();
+    }
+
+    public synchronized int size() {
+        return utterances.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    private Utterance findVictim(Priority priority) {
+        if (priority == Priority.LOW)
+            return null;
+        Utterance victim = null;
+        for (Utterance queued : utterances) {
+            if (queued.priority.compareTo(priority) > 0)
+                continue;
+            if (victim == null || queued.priority.compareTo(victim.priority) < 0)
+                victim = queued;
+        }
+        return victim;
+    }
+}
@@ -3,43 +3,174 @@ package com.github.chaosal.androidroshead;
 import android.content.Context;
 import android.media.AudioManager;
 import android.media.ToneGenerator;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.ros.exception.RemoteException;
-import org.ros.exception.ServiceNotFoundException;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageFactory;
+import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
-import org.ros.node.service.ServiceClient;
-import org.ros.node.service.ServiceResponseListener;
+import org.ros.node.parameter.ParameterTree;
 import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
-import edu.cmu.pocketsphinx.Assets;
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
 import edu.cmu.pocketsphinx.Hypothesis;
 import edu.cmu.pocketsphinx.RecognitionListener;
-import edu.cmu.pocketsphinx.SpeechRecognizer;
-import edu.cmu.pocketsphinx.SpeechRecognizerSetup;
-import smart_home_core.Command;
 
 public class SpeechRecognitionNode extends AbstractNodeMain implements RecognitionListener {
     private final static String CONTEXT = SpeechRecognitionNode.class.getSimpleName();
     public final static String TOPIC = "/speechRecognition";
+    public final static String GRAMMAR_TOPIC = TOPIC + "/grammar";
+    public final static String DICTIONARY_TOPIC = TOPIC + "/dictionary";
+    public final static String CONFIDENCE_TOPIC = TOPIC + "/confidence";
+    public final static String PARTIAL_TOPIC = TOPIC + "/partial";
+    public final static String AUDIO_TOPIC = TOPIC + "/audio";
     private final static String KWS_SEARCH_NAME = "selfName";
     private final static String GRAMMAR_SEARCH = "grammar";
+    public final static String PARAM_COMMAND_TIMEOUT = "~command_timeout";
+    public final static String PARAM_MAX_COMMANDS_IN_FLIGHT = "~max_commands_in_flight";
+    public final static String PARAM_COMMAND_DEDUP_WINDOW = "~command_dedup_window";
+    public final static String PARAM_COMMAND_CACHE_TTL = "~command_cache_ttl";
+    public final static String PARAM_COMMAND_CACHE_EXCLUDE = "~command_cache_exclude";
+    public final static String PARAM_COMMAND_CACHE_STALE = "~command_cache_stale";
+    public final static String PARAM_MIN_CONFIDENCE = "~min_confidence";
+    public final static String PARAM_COMMAND_SCORE_THRESHOLD = "~command_score_threshold";
+    public final static String PARAM_WAKE_SCORE_THRESHOLD = "~wake_score_threshold";
+    public final static String PARAM_CONFIDENCE_WARMUP = "~confidence_warmup";
+    public final static String PARAM_KEYWORD_THRESHOLD = "~keyword_threshold";
+    public final static String PARAM_AUDIO_STREAM = "~audio_stream";
+    public final static String PARAM_AUDIO_PREROLL = "~audio_preroll";
+    public final static String PARAM_VAD = "~vad";
+    public final static String PARAM_VAD_MARGIN = "~vad_margin";
+    public final static String AUDIO_STREAM_OFF = "off";
+    public final static String AUDIO_STREAM_COMMAND = "command";
+    public final static String AUDIO_STREAM_ALWAYS = "always";
+    private final static int DEFAULT_COMMAND_TIMEOUT = 5000;//ms
+    private final static int DEFAULT_MAX_COMMANDS_IN_FLIGHT = 2;
+    private final static int DEFAULT_COMMAND_DEDUP_WINDOW = 3000;//ms
+    private final static long COMMAND_RECONNECT_INTERVAL = 5000;//ms
+    private final static String ACOUSTIC_MODEL = "acc-model";
+    private final static String DICTIONARY = "cmudict.dict";
+    private final static String GRAMMAR = "grammar.gram";
+    private final static String GRAMMARS_DIR = "grammars";
+    private final static int MODEL_COPY_THREADS = 4;
+    private final static int DEFAULT_COMMAND_CACHE_STALE = 300;//s
+    final static double DEFAULT_MIN_CONFIDENCE = 0.5;
+    final static double DEFAULT_COMMAND_SCORE_THRESHOLD = -30;//per frame
+    final static double DEFAULT_WAKE_SCORE_THRESHOLD = -100;//per frame, passes everything until tuned
+    final static double DEFAULT_SCORE_SPREAD = 5;
+    private final static int DEFAULT_CONFIDENCE_WARMUP = 10;
+    private final static double DEFAULT_KEYWORD_THRESHOLD = 1e-25;
+    private final static double CONFIDENCE_ALPHA = 0.1;
+    private final static double DEFAULT_AUDIO_PREROLL = 1.5;//s
+    private final static double DEFAULT_VAD_MARGIN = 10;//dB over the noise floor
+    private final static double VAD_MAX_ZERO_CROSSINGS = 0.5;//per sample, hiss crosses more often
+    private final static int VAD_ONSET = 30;//ms
+    private final static int VAD_HANGOVER = 500;//ms, the keyphrase search needs the end of the word
+    private final static int VAD_PREROLL = 300;//ms
+    private final static int AUDIO_CHUNK = 100;//ms
+    private final static int AUDIO_CHUNKS = 20;
+    private final static int FRAME_MILLIS = 10;
     private final Context context;
-    private SpeechRecognizer recognizer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile AudioRecognizer recognizer;
+    private volatile boolean running;
+    private ModelInstaller modelInstaller;
+    private long startedAt;
+    private volatile long startupMillis = -1;//node start to the keyphrase search running
     private ToneGenerator toneGenerator;
-    private ServiceClient<smart_home_core.CommandRequest, smart_home_core.CommandResponse> commandClient;
+    private RosCommandTransport commandTransport;
+    private CommandDispatcher commandDispatcher;
+    private CommandCache commandCache;
     private Publisher<std_msgs.String> speakPublisher;
+    private Subscriber<std_msgs.String> grammarSubscriber;
+    private Subscriber<std_msgs.String> dictionarySubscriber;
+    private final HeadScheduler scheduler;
+    private GrammarUpdater grammarUpdater;
     private GlobalState globalState;
-    private final static int MAX_SCORE = 4000;
+    private final String recognitionName;
+    private Publisher<DiagnosticStatus> confidencePublisher;
+    private Publisher<DiagnosticStatus> resultPublisher;
+    private Publisher<std_msgs.String> partialPublisher;
+    private Publisher<std_msgs.UInt8MultiArray> audioPublisher;
+    private String audioStream;
+    private double audioPreRoll;
+    private AudioStreamer audioStreamer;
+    private boolean vad;
+    private double vadMargin;
+    private VoiceActivityDetector voiceGate;
+    private MessageFactory messageFactory;
+    private ConfidenceScorer wakeScorer;
+    private ConfidenceScorer commandScorer;
+    private float keywordThreshold;
+    private SpeechController controller;
+    //recognizer callbacks and searches run on the main thread
+    private int lastFrames;
+    private boolean commandResult;
+    private final SpeechController.Recognizer recognizerControl = new SpeechController.Recognizer() {
+        @Override
+        public void listenForWakeWord() {
+            startListen();
+        }
+
+        @Override
+        public void listenForCommand() {
+            startSearch();
+        }
+    };
+    private final SpeechController.Events events = new SpeechController.Events() {
+        @Override
+        public void onPartialResult(String text) {
+            final std_msgs.String partial = partialPublisher.newMessage();
+            partial.setData(text);
+            partialPublisher.publish(partial);
+        }
+
+        @Override
+        public void onWakeWord(String text, int score, double frameScore, double confidence, boolean accepted) {
+            FlightRecorder.record(FlightRecorder.WAKE_WORD, score, (float) frameScore, (float) confidence,
+                    accepted ? 1 : 0, text);
+            confidencePublisher.publish(hypothesisStatus(confidencePublisher, KWS_SEARCH_NAME, text, score, frameScore,
+                    confidence, wakeScorer, accepted));
+        }
+
+        @Override
+        public void onCommand(String text, int score, int frames, double confidence, boolean accepted, long latencyNanos) {
+            FlightRecorder.record(FlightRecorder.COMMAND_HYPOTHESIS, score, frames, (float) confidence,
+                    accepted ? 1 : 0, text);
+            Log.i(CONTEXT, String.format("score: %d, frames: %d, confidence: %.2f, result: %s", score, frames, confidence, text));
+            //a message is owned by its publisher until sent, each gets its own
+            resultPublisher.publish(commandStatus(resultPublisher, text, score, frames, confidence, accepted, latencyNanos));
+            confidencePublisher.publish(commandStatus(confidencePublisher, text, score, frames, confidence, accepted,
+                    latencyNanos));
+        }
 
-    public SpeechRecognitionNode(Context context, GlobalState globalState) {
+        @Override
+        public void onCommandError(String command, Exception e) {
+            Log.e(CONTEXT, "error getting command response: " + command, e);
+        }
+    };
+
+    public SpeechRecognitionNode(Context context, GlobalState globalState, HeadScheduler scheduler) {
         this.context = context;
+        this.scheduler = scheduler;
+        this.recognitionName = context.getString(R.string.recognitionName);
         toneGenerator = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 100);
         this.globalState = globalState;
     }
@@ -53,47 +184,231 @@ public class SpeechRecognitionNode extends AbstractNodeMain implements Recogniti
     public void onStart(ConnectedNode connectedNode) {
         super.onStart(connectedNode);
 
-        try {
-            commandClient = connectedNode.newServiceClient(GraphName.of("/command"), Command._TYPE);
-            speakPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + SpeakNode.TOPIC), std_msgs.String._TYPE);
+        speakPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + SpeakNode.URGENT_TOPIC), std_msgs.String._TYPE);
+        //the service is connected on the first command and reconnected if it restarts
+        final ParameterTree params = connectedNode.getParameterTree();
+        //responses and deadlines are handled on the audio lane
+        final ScheduledExecutorService audioLane = scheduler.executor(HeadScheduler.Lane.AUDIO);
+        final int commandTimeout = params.getInteger(PARAM_COMMAND_TIMEOUT, DEFAULT_COMMAND_TIMEOUT);
+        commandTransport = new RosCommandTransport(connectedNode, COMMAND_RECONNECT_INTERVAL, commandTimeout, audioLane);
+        final List<String> nonCacheable = new ArrayList<>();
+        for (Object word : params.getList(PARAM_COMMAND_CACHE_EXCLUDE, new ArrayList<>(CommandCache.DEFAULT_NON_CACHEABLE)))
+            nonCacheable.add(word.toString());
+        @SuppressWarnings("unchecked")
+        final Map<String, ? extends Number> ttls = (Map<String, ? extends Number>) params.getMap(PARAM_COMMAND_CACHE_TTL, CommandCache.DEFAULT_TTLS);
+        commandCache = new CommandCache(commandTransport, ttls, nonCacheable,
+                params.getInteger(PARAM_COMMAND_CACHE_STALE, DEFAULT_COMMAND_CACHE_STALE) * 1000L);
+
+        //thresholds are tuned from accepted and rejected hypotheses
+        final double minConfidence = params.getDouble(PARAM_MIN_CONFIDENCE, DEFAULT_MIN_CONFIDENCE);
+        final int warmup = params.getInteger(PARAM_CONFIDENCE_WARMUP, DEFAULT_CONFIDENCE_WARMUP);
+        wakeScorer = new ConfidenceScorer(params.getDouble(PARAM_WAKE_SCORE_THRESHOLD, DEFAULT_WAKE_SCORE_THRESHOLD),
+                DEFAULT_SCORE_SPREAD, CONFIDENCE_ALPHA, warmup, minConfidence);
+        commandScorer = new ConfidenceScorer(params.getDouble(PARAM_COMMAND_SCORE_THRESHOLD, DEFAULT_COMMAND_SCORE_THRESHOLD),
+                DEFAULT_SCORE_SPREAD, CONFIDENCE_ALPHA, warmup, minConfidence);
+        controller = new SpeechController(globalState, recognitionName, wakeScorer, commandScorer,
+                recognizerControl, new SpeechController.Speaker() {
+            @Override
+            public void speak(String text) {
+                std_msgs.String toSpeak = speakPublisher.newMessage();
+                toSpeak.setData(text);
+                speakPublisher.publish(toSpeak);
+            }
+        }, events);
+        commandDispatcher = new CommandDispatcher(commandCache, audioLane, controller,
+                params.getInteger(PARAM_MAX_COMMANDS_IN_FLIGHT, DEFAULT_MAX_COMMANDS_IN_FLIGHT),
+                commandTimeout,
+                params.getInteger(PARAM_COMMAND_DEDUP_WINDOW, DEFAULT_COMMAND_DEDUP_WINDOW),
+                context.getString(R.string.command_timeout), context.getString(R.string.command_failed));
+        controller.setDispatcher(commandDispatcher);
+        commandCache.setDispatcher(commandDispatcher);
+        keywordThreshold = (float) params.getDouble(PARAM_KEYWORD_THRESHOLD, DEFAULT_KEYWORD_THRESHOLD);
+        messageFactory = connectedNode.getTopicMessageFactory();
+        confidencePublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + CONFIDENCE_TOPIC), DiagnosticStatus._TYPE);
+        resultPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + TOPIC), DiagnosticStatus._TYPE);
+        partialPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + PARTIAL_TOPIC), std_msgs.String._TYPE);
+        audioStream = params.getString(PARAM_AUDIO_STREAM, AUDIO_STREAM_OFF);
+        audioPreRoll = params.getDouble(PARAM_AUDIO_PREROLL, DEFAULT_AUDIO_PREROLL);
+        vad = params.getBoolean(PARAM_VAD, true);
+        vadMargin = params.getDouble(PARAM_VAD_MARGIN, DEFAULT_VAD_MARGIN);
+        if (!AUDIO_STREAM_OFF.equals(audioStream))
+            audioPublisher = connectedNode.newPublisher(GraphName.of(context.getString(R.string.nodes_prefix) + AUDIO_TOPIC), std_msgs.UInt8MultiArray._TYPE);
+
+        //grammars are compiled in background and swapped in between utterances
+        grammarUpdater = new GrammarUpdater(new File(context.getFilesDir(), GRAMMARS_DIR),
+                scheduler.executor(HeadScheduler.Lane.BACKGROUND), GRAMMAR_SEARCH);
+        final String prefix = context.getString(R.string.nodes_prefix);
+        grammarSubscriber = connectedNode.newSubscriber(prefix + GRAMMAR_TOPIC, std_msgs.String._TYPE);
+        grammarSubscriber.addMessageListener(new MessageListener<std_msgs.String>() {
+            @Override
+            public void onNewMessage(std_msgs.String grammar) {
+                final AudioRecognizer recognizer = SpeechRecognitionNode.this.recognizer;
+                if (recognizer == null) {
+                    Log.w(CONTEXT, "grammar ignored, recognizer is not ready");
+                    return;
+                }
+                grammarUpdater.updateGrammar(grammar.getData(), recognizer.getDecoder());
+            }
+        });
+        dictionarySubscriber = connectedNode.newSubscriber(prefix + DICTIONARY_TOPIC, std_msgs.String._TYPE);
+        dictionarySubscriber.addMessageListener(new MessageListener<std_msgs.String>() {
+            @Override
+            public void onNewMessage(std_msgs.String dictionary) {
+                grammarUpdater.updateDictionary(dictionary.getData());
+            }
+        });
 
-            Assets assets = new Assets(context);
-            File assetsDir = assets.syncAssets();
+        startedAt = SystemClock.elapsedRealtime();
+        startupMillis = -1;
+        Metrics.gauge("speech/startup_ms", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return startupMillis;
+            }
+        });
+        running = true;
+        final File modelDir = new File(context.getFilesDir(), ModelInstaller.ASSETS_DIR);
+        final AudioRecognizer shared = SharedRecognizer.get(modelDir);
+        if (shared != null) {//restart within the process: the model is loaded and searches are compiled
+            attachOnMainThread(shared);
+            return;
+        }
+        //the keyphrase search starts as soon as the model and the dictionary are installed
+        modelInstaller = new ModelInstaller(context.getAssets(), modelDir, MODEL_COPY_THREADS);
+        modelInstaller.install(Arrays.asList(ACOUSTIC_MODEL, DICTIONARY), new ModelInstaller.Listener() {
+            @Override
+            public void onRequiredInstalled(File dir) {
+                try {
+                    attachOnMainThread(SharedRecognizer.obtain(dir, ACOUSTIC_MODEL, DICTIONARY, keywordThreshold));
+                    Log.i(CONTEXT, "model installed in " + modelInstaller.getRequiredMillis() + " ms");
+                } catch (IOException e) {
+                    Log.e("SpeechRecognitionNode", "Filed to run recognizer", e);
+                }
+            }
 
-            recognizer = SpeechRecognizerSetup.defaultSetup().setAcousticModel(new File(assetsDir, "acc-model"))
-                    .setDictionary(new File(assetsDir, "cmudict.dict"))
-                            // To disable logging of raw audio comment out this call (takes a lot of space on the device)
-                            //.setRawLogDir(assetsDir)
-                            // Threshold to tune for keyphrase to balance between false alarms and misses
-                    .setKeywordThreshold(1e-25f)
-                            // Use context-independent phonetic search, context-dependent is too slow for mobile
-                    .setBoolean("-allphone_ci", true)
-                    .getRecognizer();
+            @Override
+            public void onInstalled(File dir) {
+                //parsed on the main thread while the recognizer is stopped
+                grammarUpdater.installDefault(new File(dir, GRAMMAR));
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        final AudioRecognizer recognizer = SpeechRecognitionNode.this.recognizer;
+                        if (recognizer != null && KWS_SEARCH_NAME.equals(recognizer.getSearchName()))
+                            startListen();//restarts the keyphrase search applying the grammar
+                    }
+                });
+            }
 
-            recognizer.addListener(this);
-            recognizer.addKeyphraseSearch(KWS_SEARCH_NAME, context.getString(R.string.recognitionName));
-            recognizer.addGrammarSearch(GRAMMAR_SEARCH, new File(assetsDir, "grammar.gram"));
+            @Override
+            public void onError(IOException e) {
+                Log.e("SpeechRecognitionNode", "Filed to install recognizer model", e);
+            }
+        });
+    }
 
-            startListen();
-        } catch (IOException e) {
-            Log.e("SpeechRecognitionNode", "Filed to run recognizer", e);
-        } catch (ServiceNotFoundException e) {
-            Log.e("SpeechRecognitionNode", "Filed to found command service", e);
+    /**
+     * The recognizer is started and stopped on the main thread only
+     */
+    private void attachOnMainThread(final AudioRecognizer recognizer) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                attachRecognizer(recognizer);
+            }
+        });
+    }
+
+    private synchronized void attachRecognizer(AudioRecognizer recognizer) {
+        if (!running)//the model was installed after shutdown
+            return;
+        recognizer.addListener(this);
+        if (audioPublisher != null) {
+            audioStreamer = newAudioStreamer(recognizer.getSampleRate());
+            audioStreamer.setStreaming(AUDIO_STREAM_ALWAYS.equals(audioStream));
+            audioStreamer.start();
+            recognizer.setAudioListener(audioStreamer);
+        }
+        if (vad) {
+            final VoiceActivityDetector voiceGate = new VoiceActivityDetector(recognizer.getSampleRate(), vadMargin,
+                    VAD_MAX_ZERO_CROSSINGS, VAD_ONSET, VAD_HANGOVER, VAD_PREROLL);
+            Metrics.gauge("speech/vad_duty_pct", new Metrics.Gauge() {
+                @Override
+                public long get() {
+                    return Math.round(voiceGate.getDutyCycle() * 100);
+                }
+            });
+            this.voiceGate = voiceGate;
+        }
+        SharedRecognizer.addKeyphraseSearch(KWS_SEARCH_NAME, recognitionName);
+        this.recognizer = recognizer;
+
+        startListen();
+        startupMillis = SystemClock.elapsedRealtime() - startedAt;
+        Log.i(CONTEXT, "listening " + startupMillis + " ms after start");
+    }
+
+    /**
+     * Audio chunks in mu-law published as they are read, the pre-roll keeps the wake word
+     */
+    private AudioStreamer newAudioStreamer(int sampleRate) {
+        final int chunkSamples = sampleRate * AUDIO_CHUNK / 1000;
+        final MessageRing<std_msgs.UInt8MultiArray> messages = new MessageRing<>(audioPublisher);
+        for (int i = 0; i < messages.size(); i++) {
+            final std_msgs.UInt8MultiArray message = messages.get(i);
+            final std_msgs.MultiArrayDimension dimension = messageFactory.newFromType(std_msgs.MultiArrayDimension._TYPE);
+            dimension.setLabel("mulaw_" + sampleRate);
+            dimension.setStride(1);
+            message.getLayout().getDim().add(dimension);
+            message.setData(ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN, chunkSamples));
         }
+        return new AudioStreamer(new AudioStreamer.Sink() {
+            @Override
+            public void publish(short[] samples, int length) {
+                final std_msgs.UInt8MultiArray message = messages.next();
+                message.getLayout().getDim().get(0).setSize(length);
+                message.getData().clear();
+                for (int i = 0; i < length; i++)
+                    message.getData().writeByte(AudioStreamer.mulaw(samples[i]));
+                audioPublisher.publish(message);
+            }
+        }, scheduler.executor(HeadScheduler.Lane.STREAM), chunkSamples, AUDIO_CHUNKS, (int) (audioPreRoll * sampleRate));
     }
 
     private void startSearch() {
+        if (recognizer == null)
+            return;
         recognizer.stop();
+        commandResult = false;
+        grammarUpdater.apply(recognizer.getDecoder());
+        if (!grammarUpdater.isReady()) {
+            Log.w(CONTEXT, "grammar search is not installed yet, listening for the wake word");
+            startListen();
+            return;
+        }
+        if (audioStreamer != null && AUDIO_STREAM_COMMAND.equals(audioStream))
+            audioStreamer.setStreaming(true);
 
         globalState.setListening(true);
         toneGenerator.startTone(ToneGenerator.TONE_PROP_BEEP);
-        recognizer.startListening(GRAMMAR_SEARCH, 10000);
+        recognizer.startListening(grammarUpdater.getSearch(), 10000);
         Log.i(CONTEXT, "start search");
     }
 
     private void startListen() {
-        recognizer.stop();
-        recognizer.startListening(KWS_SEARCH_NAME);
+        if (recognizer == null)
+            return;
+        final String search = recognizer.getSearchName();
+        if (recognizer.stop()) {//the result of the stopped search is posted next
+            commandResult = search != null && !search.equals(KWS_SEARCH_NAME);
+            lastFrames = recognizer.getDecoder().nFrames();
+        }
+        grammarUpdater.apply(recognizer.getDecoder());
+        if (audioStreamer != null && AUDIO_STREAM_COMMAND.equals(audioStream))
+            audioStreamer.setStreaming(false);
+        globalState.setListening(false);
+        //the keyphrase search runs all the time, in a silent room the gate keeps the decoder idle
+        recognizer.startListening(KWS_SEARCH_NAME, AudioRecognizer.NO_TIMEOUT, voiceGate);
     }
 
     @Override
@@ -102,49 +417,65 @@ public class SpeechRecognitionNode extends AbstractNodeMain implements Recogniti
 
     @Override
     public void onEndOfSpeech() {
-        globalState.setListening(false);
-        if (!recognizer.getSearchName().equals(KWS_SEARCH_NAME))
-            startListen();
+        final AudioRecognizer recognizer = this.recognizer;
+        if (recognizer == null)//posted before shutdown
+            return;
+        final String search = recognizer.getSearchName();
+        if (search != null && !search.equals(KWS_SEARCH_NAME))
+            controller.onCommandEnded();
     }
 
     @Override
     public void onPartialResult(Hypothesis hypothesis) {
-        if (hypothesis == null)
+        final AudioRecognizer recognizer = this.recognizer;
+        if (hypothesis == null || recognizer == null)
             return;
-
-        if (hypothesis.getHypstr().equals(context.getString(R.string.recognitionName)) && !globalState.isSpeaking())
-            startSearch();
+        final String text = hypothesis.getHypstr();
+        //the wake word score is normalised by its own frames, not by the audio since the search started
+        final int frames = text.equals(recognitionName) ? AudioRecognizer.wordFrames(recognizer.getDecoder(), text)
+                : recognizer.getDecoder().nFrames();
+        controller.onPartialResult(text, hypothesis.getBestScore(), frames);
     }
 
     @Override
     public void onResult(Hypothesis hypothesis) {
-        if (hypothesis == null)
-            return;
-        Log.i(CONTEXT, String.format("score: %d, probe: %d, result: %s",
-                hypothesis.getBestScore(), hypothesis.getProb(), hypothesis.getHypstr()));
-        if (Math.abs(hypothesis.getBestScore()) > MAX_SCORE)
-            return;
+        final boolean command = commandResult;
+        commandResult = false;
+        if (command)
+            controller.onCommandResult(hypothesis == null ? null : hypothesis.getHypstr(),
+                    hypothesis == null ? 0 : hypothesis.getBestScore(), lastFrames);
+    }
 
-        if (!hypothesis.getHypstr().equals(context.getString(R.string.recognitionName)))
-            processCommand(hypothesis.getHypstr());
+    private DiagnosticStatus commandStatus(Publisher<DiagnosticStatus> publisher, String text, int score, int frames,
+                                           double confidence, boolean accepted, long latencyNanos) {
+        final DiagnosticStatus status = hypothesisStatus(publisher, grammarUpdater.getSearch(), text, score,
+                ConfidenceScorer.frameScore(score, frames), confidence, commandScorer, accepted);
+        status.getValues().add(keyValue("duration_ms", String.valueOf(frames * FRAME_MILLIS)));
+        status.getValues().add(keyValue("latency_ms", String.valueOf(latencyNanos / 1000000)));//from the wake word
+        return status;
     }
 
-    private void processCommand(String command) {
-        smart_home_core.CommandRequest message = commandClient.newMessage();
-        message.setCommand(command);
-        commandClient.call(message, new ServiceResponseListener<smart_home_core.CommandResponse>() {
-            @Override
-            public void onSuccess(smart_home_core.CommandResponse response) {
-                std_msgs.String toSpeak = speakPublisher.newMessage();
-                toSpeak.setData(response.getResponse());
-                speakPublisher.publish(toSpeak);
-            }
+    private DiagnosticStatus hypothesisStatus(Publisher<DiagnosticStatus> publisher, String search, String text, int score,
+                                              double frameScore, double confidence, ConfidenceScorer scorer, boolean accepted) {
+        final DiagnosticStatus message = publisher.newMessage();
+        message.setName(search);
+        message.setLevel(accepted ? DiagnosticStatus.OK : DiagnosticStatus.WARN);
+        message.setMessage(text);
+        final List<KeyValue> values = new ArrayList<>();
+        values.add(keyValue("confidence", String.format("%.3f", confidence)));
+        values.add(keyValue("score", String.valueOf(score)));
+        values.add(keyValue("frame_score", String.format("%.2f", frameScore)));
+        values.add(keyValue("threshold", String.format("%.2f", scorer.getThreshold())));
+        values.add(keyValue("noise_floor", String.format("%.2f", scorer.getNoiseFloor())));
+        message.setValues(values);
+        return message;
+    }
 
-            @Override
-            public void onFailure(RemoteException e) {
-                Log.e("SpeechRecognitionNode", "error getting command response", e);
-            }
-        });
+    private KeyValue keyValue(String key, String value) {
+        final KeyValue keyValue = messageFactory.newFromType(KeyValue._TYPE);
+        keyValue.setKey(key);
+        keyValue.setValue(value);
+        return keyValue;
     }
 
     @Override
@@ -155,14 +486,36 @@ public class SpeechRecognitionNode extends AbstractNodeMain implements Recogniti
     @Override
     public void onTimeout() {
         Log.i(CONTEXT, "timeout");
-        startListen();
+        controller.onCommandEnded();
     }
 
     @Override
     public void onShutdown(Node node) {
         super.onShutdown(node);
         Log.i(CONTEXT, "shutdown");
-        recognizer.cancel();
-        recognizer.shutdown();
+        if (commandTransport != null)
+            commandTransport.shutdown();
+        if (grammarSubscriber != null)
+            grammarSubscriber.shutdown();
+        if (dictionarySubscriber != null)
+            dictionarySubscriber.shutdown();
+        if (commandCache != null)
+            Log.i(CONTEXT, String.format("command cache hits: %d, stale hits: %d, misses: %d",
+                    commandCache.getHits(), commandCache.getStaleHits(), commandCache.getMisses()));
+        //the model stays loaded for the next start
+        synchronized (this) {
+            running = false;
+            if (recognizer != null)
+                recognizer.setAudioListener(null);
+            SharedRecognizer.release(this);
+            recognizer = null;
+        }
+        if (voiceGate != null)
+            Log.i(CONTEXT, String.format("keyphrase search decoded %.1f%% of the audio, noise floor %.1f dB",
+                    voiceGate.getDutyCycle() * 100, voiceGate.getNoiseFloorDb()));
+        if (audioStreamer != null) {
+            Log.i(CONTEXT, "audio samples dropped: " + audioStreamer.getDropped());
+            audioStreamer.shutdown();
+        }
     }
 }
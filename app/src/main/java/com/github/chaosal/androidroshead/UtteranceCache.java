@@ -0,0 +1,140 @@
+package com.github.chaosal.androidroshead;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of synthesised utterances on disk, bounded by total size of the files.
+ * Keys are derived from everything that affects the audio: text, locale and voice parameters.
+ * The files found in the directory at construction are reused, oldest are evicted first.
+ */
+public class UtteranceCache {
+
+    public final static String EXTENSION = ".wav";
+    private final static String PENDING_EXTENSION = ".tmp";
+
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);//key -> size
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public UtteranceCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return;
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.valueOf(lhs.lastModified()).compareTo(rhs.lastModified());
+            }
+        });
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(EXTENSION) && file.length() > 0) {
+                entries.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+                bytes += file.length();
+            } else if (!file.delete())//unfinished synthesis
+                file.deleteOnExit();
+        }
+        evict();
+    }
+
+    public static String key(String text, String locale, float rate, float pitch) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest((text + '\u0000' + locale + '\u0000' + rate + '\u0000' + pitch).getBytes("UTF-8"));
+            final StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return synthesised file or null on a miss
+     */
+    public synchronized File get(String key) {
+        if (entries.get(key) != null) {
+            final File file = file(key);
+            if (file.isFile()) {
+                hits++;
+                return file;
+            }
+            bytes -= entries.remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * File to synthesise an utterance into, call {@link #put(String)} once it is written
+     */
+    public File pendingFile(String key) {
+        return new File(dir, key + PENDING_EXTENSION);
+    }
+
+    /**
+     * Registers a synthesised pending file and evicts least recently used ones over the size limit
+     */
+    public synchronized void put(String key) {
+        final File pending = pendingFile(key);
+        final long size = pending.length();
+        if (size == 0 || !pending.renameTo(file(key)))
+            return;
+        final Long previous = entries.put(key, size);
+        bytes += size - (previous != null ? previous : 0);
+        evict();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private File file(String key) {
+        return new File(dir, key + EXTENSION);
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.getValue();
+            evictions++;
+            if (!file(eldest.getKey()).delete())
+                file(eldest.getKey()).deleteOnExit();
+        }
+    }
+}
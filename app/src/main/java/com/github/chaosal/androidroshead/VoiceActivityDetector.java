@@ -0,0 +1,151 @@
+package com.github.chaosal.androidroshead;
+
+/**
+ * Energy and zero-crossing voice activity gate in front of the decoder. Audio is classified in 10 ms frames:
+ * a frame is speech-like when it is louder than the adaptive noise floor by a margin and does not cross zero
+ * as often as hiss does. Speech starts after a few speech-like frames and ends after a hangover of quiet ones.
+ * The audio preceding the start is kept in a pre-roll ring and passed first, so the decoder gets whole words.
+ * Called on the recognizer thread only, never allocates after construction.
+ */
+public class VoiceActivityDetector {
+
+    public final static int FRAME_MILLIS = 10;
+    private final static double FLOOR_DOWN = 0.2;//per frame, the floor follows quieter audio quickly
+    private final static double FLOOR_UP = 0.02;//...and louder non-speech slowly
+    private final static double FLOOR_UP_IN_SPEECH = 0.002;//a steady new noise is not speech forever
+
+    private final int frameSamples;
+    private final double marginDb;
+    private final double maxZeroCrossings;
+    private final int onsetFrames;
+    private final int hangoverFrames;
+    private final short[] preRoll;
+    private int preRollPosition;
+    private int preRollLength;
+    private double noiseFloorDb = Double.NaN;
+    private boolean speech;
+    private int speechRun;
+    private int quietRun;
+    private long samples;
+    private long passedSamples;
+
+    /**
+     * @param marginDb         loudness over the noise floor of a speech-like frame
+     * @param maxZeroCrossings zero crossings per sample above which a frame is hiss, 0..1
+     * @param onsetMillis      speech-like audio needed to start speech
+     * @param hangoverMillis   quiet audio needed to end speech
+     * @param preRollMillis    audio passed from before the start of speech, not shorter than the onset
+     */
+    public VoiceActivityDetector(int sampleRate, double marginDb, double maxZeroCrossings,
+                                 int onsetMillis, int hangoverMillis, int preRollMillis) {
+        if (preRollMillis < onsetMillis)
+            throw new IllegalArgumentException("pre-roll must cover the onset");
+        frameSamples = sampleRate * FRAME_MILLIS / 1000;
+        this.marginDb = marginDb;
+        this.maxZeroCrossings = maxZeroCrossings;
+        onsetFrames = Math.max(1, onsetMillis / FRAME_MILLIS);
+        hangoverFrames = hangoverMillis / FRAME_MILLIS;
+        preRoll = new short[sampleRate * preRollMillis / 1000];
+    }
+
+    /**
+     * Samples a call to {@link #process} may write besides the ones read
+     */
+    public int getPreRollSamples() {
+        return preRoll.length;
+    }
+
+    /**
+     * Classifies the audio and copies what the decoder should get to out
+     *
+     * @param out at least length + {@link #getPreRollSamples()} long
+     * @return samples written to out from its start
+     */
+    public int process(short[] audio, int length, short[] out) {
+        int written = 0;
+        for (int offset = 0; offset < length; offset += frameSamples) {
+            final int frameLength = Math.min(frameSamples, length - offset);
+            final boolean wasSpeech = speech;
+            classify(audio, offset, frameLength);
+            if (speech) {
+                if (!wasSpeech)
+                    written = drainPreRoll(out, written);
+                System.arraycopy(audio, offset, out, written, frameLength);
+                written += frameLength;
+            } else
+                keep(audio, offset, frameLength);
+        }
+        samples += length;
+        passedSamples += written;
+        return written;
+    }
+
+    private void classify(short[] audio, int offset, int length) {
+        double energy = 0;
+        int crossings = 0;
+        for (int i = offset; i < offset + length; i++) {
+            energy += audio[i] * audio[i];
+            if (i > offset && (audio[i] ^ audio[i - 1]) < 0)
+                crossings++;
+        }
+        final double db = 10 * Math.log10(energy / length + 1);
+        final boolean speechLike = !Double.isNaN(noiseFloorDb) && db > noiseFloorDb + marginDb
+                && crossings <= maxZeroCrossings * length;
+        if (Double.isNaN(noiseFloorDb))
+            noiseFloorDb = db;
+        else
+            noiseFloorDb += (db - noiseFloorDb)
+                    * (db < noiseFloorDb ? FLOOR_DOWN : speechLike ? FLOOR_UP_IN_SPEECH : FLOOR_UP);
+        if (speechLike) {
+            quietRun = 0;
+            if (++speechRun >= onsetFrames)
+                speech = true;
+        } else {
+            speechRun = 0;
+            if (speech && ++quietRun > hangoverFrames)
+                speech = false;
+        }
+    }
+
+    private void keep(short[] audio, int offset, int length) {
+        for (int i = offset; i < offset + length && preRoll.length > 0; i++) {
+            preRoll[preRollPosition] = audio[i];
+            preRollPosition = (preRollPosition + 1) % preRoll.length;
+        }
+        preRollLength = Math.min(preRollLength + length, preRoll.length);
+    }
+
+    private int drainPreRoll(short[] out, int written) {
+        final int start = (preRollPosition - preRollLength + preRoll.length) % Math.max(preRoll.length, 1);
+        for (int i = 0; i < preRollLength; i++)
+            out[written++] = preRoll[(start + i) % preRoll.length];
+        preRollLength = 0;
+        return written;
+    }
+
+    public boolean isSpeech() {
+        return speech;
+    }
+
+    /**
+     * Frame energy of the background, dB over a sample value of 1
+     */
+    public double getNoiseFloorDb() {
+        return noiseFloorDb;
+    }
+
+    /**
+     * Fraction of the audio passed to the decoder
+     */
+    public double getDutyCycle() {
+        return samples == 0 ? 0 : (double) passedSamples / samples;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getPassedSamples() {
+        return passedSamples;
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class AudioStreamerTest {
+
+    private final List<Short> published = new ArrayList<>();
+    private final List<Integer> chunks = new ArrayList<>();
+    private final ExecutorService lane = Executors.newSingleThreadExecutor();
+
+    private final AudioStreamer.Sink sink = new AudioStreamer.Sink() {
+        @Override
+        public void publish(short[] samples, int length) {
+            synchronized (published) {
+                for (int i = 0; i < length; i++)
+                    published.add(samples[i]);
+                chunks.add(length);
+                published.notifyAll();
+            }
+        }
+    };
+
+    @After
+    public void tearDown() throws Exception {
+        lane.shutdown();
+    }
+
+    private static short[] samples(int from, int to) {
+        final short[] samples = new short[to - from + 1];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = (short) (from + i);
+        return samples;
+    }
+
+    private void awaitPublished(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        synchronized (published) {
+            while (published.size() < count && System.currentTimeMillis() < deadline)
+                published.wait(100);
+        }
+    }
+
+    @Test
+    public void onAudio_streamsPreRollFirst() throws Exception {
+        final AudioStreamer streamer = new AudioStreamer(sink, lane, 4, 8, 6);
+        streamer.start();
+        try {
+            streamer.onAudio(samples(1, 5), 5);
+            streamer.onAudio(samples(6, 8), 3);
+            streamer.setStreaming(true);
+            streamer.onAudio(samples(9, 10), 2);
+            awaitPublished(8);
+            synchronized (published) {
+                assertEquals(8, published.size());
+                for (int i = 0; i < 8; i++)
+                    assertEquals(3 + i, (int) published.get(i));
+            }
+        } finally {
+            streamer.shutdown();
+        }
+    }
+
+    @Test
+    public void onAudio_flushesPartialChunkOnStop() throws Exception {
+        final AudioStreamer streamer = new AudioStreamer(sink, lane, 4, 8, 0);
+        streamer.start();
+        try {
+            streamer.setStreaming(true);
+            streamer.onAudio(samples(1, 6), 6);
+            streamer.setStreaming(false);
+            streamer.onAudio(samples(7, 8), 2);
+            awaitPublished(6);
+            synchronized (published) {
+                assertEquals(6, published.size());
+                assertEquals(6, (int) published.get(5));
+                assertEquals(2, (int) chunks.get(1));
+            }
+        } finally {
+            streamer.shutdown();
+        }
+    }
+
+    @Test
+    public void onAudio_dropsWhenPoolIsEmpty() throws Exception {
+        final AudioStreamer streamer = new AudioStreamer(sink, lane, 4, 2, 0);//not started: chunks are never returned
+        streamer.setStreaming(true);
+        streamer.onAudio(samples(1, 12), 12);
+        assertEquals(4, streamer.getDropped());
+    }
+
+    @Test
+    public void mulaw_knownValues() throws Exception {
+        assertEquals((byte) 0xFF, AudioStreamer.mulaw((short) 0));
+        assertEquals((byte) 0x80, AudioStreamer.mulaw(Short.MAX_VALUE));
+        assertEquals((byte) 0x00, AudioStreamer.mulaw(Short.MIN_VALUE));
+        assertEquals((byte) 0x7F, AudioStreamer.mulaw((short) -1));
+    }
+}
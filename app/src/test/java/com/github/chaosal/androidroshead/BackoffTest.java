@@ -0,0 +1,31 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+
+    @Test
+    public void next_doublesUpToMaxWithJitter() throws Exception {
+        final Backoff backoff = new Backoff(1000, 30000, new Random(42));
+        long expected = 1000;
+        for (int i = 0; i < 10; i++) {
+            final long delay = backoff.next();
+            assertTrue(delay <= expected && delay > expected * 3 / 4);
+            expected = Math.min(expected * 2, 30000);
+        }
+        assertEquals(10, backoff.getAttempts());
+
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.next() <= 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsMaxBelowInitial() throws Exception {
+        new Backoff(1000, 500, new Random());
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BatteryMonitorTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private final BatteryMonitor monitor = new BatteryMonitor(2, MINUTE, 15, 20, 30 * MINUTE);
+
+    @Test
+    public void shouldPublish_onlyMeaningfulChanges() throws Exception {
+        assertTrue(monitor.shouldPublish(50, false, 2, 0));
+        assertFalse(monitor.shouldPublish(49, false, 2, 2 * MINUTE));//below the step
+        assertFalse(monitor.shouldPublish(48, false, 2, 10));//too soon
+        assertTrue(monitor.shouldPublish(48, false, 2, 2 * MINUTE));
+        assertTrue(monitor.shouldPublish(48, true, 2, 2 * MINUTE + 1));//status change is immediate
+    }
+
+    @Test
+    public void shouldWarn_withHysteresis() throws Exception {
+        assertFalse(monitor.shouldWarn(16, false, 0));
+        assertTrue(monitor.shouldWarn(14, false, 0));
+        assertFalse(monitor.shouldWarn(14, false, MINUTE));
+        assertFalse(monitor.shouldWarn(15, false, 2 * MINUTE));
+        assertFalse(monitor.shouldWarn(14, false, 3 * MINUTE));//jitter around the threshold
+        assertTrue(monitor.shouldWarn(13, false, 31 * MINUTE));//repeat interval
+        assertFalse(monitor.shouldWarn(13, true, 32 * MINUTE));
+        assertTrue(monitor.shouldWarn(13, false, 33 * MINUTE));//re-armed by charging
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+public class CommandCacheTest {
+
+    private final List<String> sent = new ArrayList<>();
+    private final List<String> answers = new ArrayList<>();
+    private long now = 1000000;
+
+    private final CommandCache.Clock clock = new CommandCache.Clock() {
+        @Override
+        public long millis() {
+            return now;
+        }
+    };
+
+    private final CommandDispatcher.Transport service = new CommandDispatcher.Transport() {
+        @Override
+        public void call(String command, CommandDispatcher.Callback callback) {
+            sent.add(command);
+            callback.onResponse("answer " + sent.size());
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    private final CommandDispatcher.Callback callback = new CommandDispatcher.Callback() {
+        @Override
+        public void onResponse(String response) {
+            answers.add(response);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            fail(e.getMessage());
+        }
+    };
+
+    @Test
+    public void call_cachesReadOnlyQueriesByNormalisedText() throws Exception {
+        final CommandCache cache = new CommandCache(service, CommandCache.DEFAULT_TTLS, CommandCache.DEFAULT_NON_CACHEABLE, 0);
+        cache.call("скажи погоду", callback);
+        cache.call("  Скажи   погоду ", callback);
+        assertEquals(1, sent.size());
+        assertEquals("answer 1", answers.get(1));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void call_neverCachesActuators() throws Exception {
+        final CommandCache cache = new CommandCache(service, CommandCache.DEFAULT_TTLS, CommandCache.DEFAULT_NON_CACHEABLE, 0);
+        cache.call("включи статус", callback);
+        cache.call("включи статус", callback);
+        cache.call("привет", callback);//no ttl
+        cache.call("привет", callback);
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void call_answersStaleAndRefreshes() throws Exception {
+        final CommandCache cache = new CommandCache(service, Collections.singletonMap("статус", 1),
+                CommandCache.DEFAULT_NON_CACHEABLE, 60000, clock);
+        cache.call("статус", callback);
+        now += 1100;//past the ttl
+        cache.call("статус", callback);
+        assertEquals("answer 1", answers.get(1));//answered from the stale entry
+        assertEquals(2, sent.size());//and refreshed
+        cache.call("статус", callback);
+        assertEquals("answer 2", answers.get(2));
+        assertEquals(1, cache.getStaleHits());
+        now += 62000;//past the stale period too
+        cache.call("статус", callback);
+        assertEquals(3, sent.size());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void refresh_takesADispatcherSlot() throws Exception {
+        final List<CommandDispatcher.Callback> pending = new ArrayList<>();
+        final CommandCache cache = new CommandCache(new CommandDispatcher.Transport() {
+            @Override
+            public void call(String command, CommandDispatcher.Callback callback) {
+                sent.add(command);
+                pending.add(callback);
+            }
+
+            @Override
+            public void reset() {
+            }
+        }, Collections.singletonMap("статус", 1), CommandCache.DEFAULT_NON_CACHEABLE, 60000, clock);
+        final CommandDispatcher dispatcher = new CommandDispatcher(cache, new ScheduledThreadPoolExecutor(1),
+                new CommandDispatcher.ResponseListener() {
+                    @Override
+                    public void onResponse(String command, String response) {
+                        answers.add(response);
+                    }
+
+                    @Override
+                    public void onError(String command, Exception e) {
+                    }
+                }, 1, 10000, 0, "timeout", "failure");
+        cache.setDispatcher(dispatcher);
+        dispatcher.dispatch("статус");
+        pending.get(0).onResponse("ok");
+        now += 1100;//past the ttl
+        assertTrue(dispatcher.dispatch("статус"));
+        assertEquals("ok", answers.get(1));
+        assertEquals(2, sent.size());//refreshing
+        assertEquals(1, dispatcher.getInFlight());
+        assertFalse(dispatcher.dispatch("привет"));//the refresh holds the only slot
+        pending.get(1).onResponse("fresh");
+        assertEquals(0, dispatcher.getInFlight());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void defaults_areReadOnly() throws Exception {
+        CommandCache.DEFAULT_TTLS.put("погоду", 0);
+    }
+}
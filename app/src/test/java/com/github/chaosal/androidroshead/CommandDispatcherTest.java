@@ -0,0 +1,119 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class CommandDispatcherTest {
+
+    private final List<CommandDispatcher.Callback> pending = new ArrayList<>();
+    private final List<String> spoken = new ArrayList<>();
+    private final CountDownLatch answered = new CountDownLatch(1);
+    private int resets;
+
+    private final CommandDispatcher.Transport slowTransport = new CommandDispatcher.Transport() {
+        @Override
+        public void call(String command, CommandDispatcher.Callback callback) {
+            pending.add(callback);
+        }
+
+        @Override
+        public void reset() {
+            resets++;
+        }
+    };
+
+    private final CommandDispatcher.ResponseListener listener = new CommandDispatcher.ResponseListener() {
+        @Override
+        public synchronized void onResponse(String command, String response) {
+            spoken.add(response);
+            answered.countDown();
+        }
+
+        @Override
+        public void onError(String command, Exception e) {
+        }
+    };
+
+    @Test
+    public void dispatch_boundsInFlightAndDeduplicates() throws Exception {
+        final CommandDispatcher dispatcher = new CommandDispatcher(slowTransport, new ScheduledThreadPoolExecutor(1),
+                listener, 2, 10000, 10000, "timeout", "failure");
+        assertTrue(dispatcher.dispatch("status"));
+        assertFalse(dispatcher.dispatch("status"));
+        assertTrue(dispatcher.dispatch("weather"));
+        assertFalse(dispatcher.dispatch("time"));
+        assertEquals(2, dispatcher.getInFlight());
+        pending.get(0).onResponse("ok");
+        assertEquals(1, dispatcher.getInFlight());
+        assertTrue(dispatcher.dispatch("time"));
+        assertEquals(2, dispatcher.getRejected());
+    }
+
+    @Test
+    public void dispatch_answersByDeadline() throws Exception {
+        final CommandDispatcher dispatcher = new CommandDispatcher(slowTransport, new ScheduledThreadPoolExecutor(1),
+                listener, 2, 50, 0, "timeout", "failure");
+        dispatcher.dispatch("status");
+        assertTrue(answered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);//reset follows the timeout response
+        assertEquals(1, resets);
+        //the call holds its slot until the transport completes it
+        assertEquals(1, dispatcher.getInFlight());
+        pending.get(0).onResponse("late");
+        assertEquals(1, spoken.size());
+        assertEquals("timeout", spoken.get(0));
+        assertEquals(1, dispatcher.getTimeouts());
+        assertEquals(0, dispatcher.getInFlight());
+    }
+
+    @Test
+    public void dispatch_releasesTimedOutSlotOnFailure() throws Exception {
+        final CommandDispatcher dispatcher = new CommandDispatcher(slowTransport, new ScheduledThreadPoolExecutor(1),
+                listener, 1, 50, 0, "timeout", "failure");
+        dispatcher.dispatch("status");
+        assertTrue(answered.await(5, TimeUnit.SECONDS));
+        assertFalse(dispatcher.dispatch("weather"));
+        pending.get(0).onFailure(new Exception("client dropped"));
+        assertEquals(0, dispatcher.getInFlight());
+        assertEquals(1, spoken.size());//already answered by the timeout
+        assertTrue(dispatcher.dispatch("weather"));
+    }
+
+    @Test
+    public void dispatch_answersTransportTimeoutAsTimeout() throws Exception {
+        final CommandDispatcher dispatcher = new CommandDispatcher(slowTransport, new ScheduledThreadPoolExecutor(1),
+                listener, 1, 10000, 0, "timeout", "failure");
+        dispatcher.dispatch("status");
+        pending.get(0).onFailure(new TimeoutException("no answer"));
+        assertEquals(1, spoken.size());
+        assertEquals("timeout", spoken.get(0));
+        assertEquals(1, dispatcher.getTimeouts());
+        assertEquals(1, resets);
+        assertEquals(0, dispatcher.getInFlight());
+    }
+
+    @Test
+    public void dispatch_speaksFailureWhenServiceIsMissing() throws Exception {
+        final CommandDispatcher dispatcher = new CommandDispatcher(new CommandDispatcher.Transport() {
+            @Override
+            public void call(String command, CommandDispatcher.Callback callback) throws Exception {
+                throw new Exception("no service");
+            }
+
+            @Override
+            public void reset() {
+            }
+        }, new ScheduledThreadPoolExecutor(1), listener, 2, 10000, 10000, "timeout", "failure");
+        assertTrue(dispatcher.dispatch("status"));
+        assertEquals("failure", spoken.get(0));
+        assertTrue(dispatcher.dispatch("status"));//failures are not deduplicated
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConfidenceScorerTest {
+
+    private final ConfidenceScorer scorer = new ConfidenceScorer(-30, 5, 0.2, 3, 0.5);
+
+    @Test
+    public void frameScore_normalisesByLength() throws Exception {
+        assertEquals(-20, ConfidenceScorer.frameScore(-2000, 100), 1e-9);
+        assertEquals(ConfidenceScorer.frameScore(-1000, 50), ConfidenceScorer.frameScore(-4000, 200), 1e-9);
+        assertEquals(-10, ConfidenceScorer.frameScore(-10, 0), 1e-9);
+    }
+
+    @Test
+    public void confidence_beforeTuning() throws Exception {
+        assertEquals(0.5, scorer.confidence(-30), 1e-9);
+        assertTrue(scorer.isAccepted(scorer.confidence(-20)));
+        assertFalse(scorer.isAccepted(scorer.confidence(-40)));
+    }
+
+    @Test
+    public void feedback_movesThresholdBetweenNoiseAndSignal() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            scorer.feedback(-50, false);
+            scorer.feedback(-10, true);
+        }
+        assertEquals(-50, scorer.getNoiseFloor(), 1e-9);
+        assertEquals(-10, scorer.getSignalLevel(), 1e-9);
+        assertEquals(-30, scorer.getThreshold(), 1e-9);
+
+        //the room gets noisier: garbage scores closer to commands
+        for (int i = 0; i < 20; i++)
+            scorer.feedback(-20, false);
+        assertTrue(scorer.getThreshold() > -20);
+        assertFalse(scorer.isAccepted(scorer.confidence(-20)));
+        assertTrue(scorer.isAccepted(scorer.confidence(-10)));
+    }
+
+    @Test
+    public void feedback_ignoresInvertedHistory() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            scorer.feedback(-10, false);
+            scorer.feedback(-50, true);
+        }
+        assertEquals(-30, scorer.getThreshold(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsBadAlpha() throws Exception {
+        new ConfidenceScorer(-30, 5, 0, 3, 0.5);
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("flight", ".rec");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void read_decodesWrittenRecords() throws Exception {
+        final FlightRecorder recorder = new FlightRecorder(file, 16);
+        recorder.write(FlightRecorder.ORIENTATION, 1, 0.5f, -0.5f, 0.25f, null);
+        recorder.write(FlightRecorder.COMMAND_RESPONSE, 120, FlightRecorder.RESPONSE_TIMEOUT, 0, 0, "погода");
+        recorder.close();
+        final List<FlightRecordReader.Record> records = FlightRecordReader.read(file);
+        assertEquals(2, records.size());
+        assertEquals("orientation", records.get(0).getTypeName());
+        assertEquals(-0.5f, records.get(0).getValue(2), 0);
+        assertEquals("", records.get(0).getText());
+        assertEquals(FlightRecorder.COMMAND_RESPONSE, records.get(1).getType());
+        assertEquals(120, records.get(1).getValue(0), 0);
+        assertEquals("погода", records.get(1).getText());
+        assertTrue(records.get(1).getTimeMillis() > 0);
+    }
+
+    @Test
+    public void write_wrapsKeepingNewest() throws Exception {
+        final FlightRecorder recorder = new FlightRecorder(file, 8);
+        for (int i = 1; i <= 20; i++)
+            recorder.write(FlightRecorder.BATTERY, i, 0, 0, 0, null);
+        final List<FlightRecordReader.Record> records = FlightRecordReader.read(recorder.snapshot());
+        recorder.close();
+        assertEquals(8, records.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(13 + i, records.get(i).getSequence());
+            assertEquals(13 + i, records.get(i).getValue(0), 0);
+        }
+    }
+
+    @Test
+    public void constructor_continuesSequenceOfPreviousRun() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(file, 8);
+        for (int i = 0; i < 10; i++)
+            recorder.write(FlightRecorder.TTS_START, 0, 0, 0, 0, "a");
+        recorder.close();
+        recorder = new FlightRecorder(file, 8);
+        assertEquals(10, recorder.getRecordsWritten());
+        recorder.write(FlightRecorder.TTS_STOP, 300, 0, 0, 0, null);
+        recorder.close();
+        final List<FlightRecordReader.Record> records = FlightRecordReader.read(file);
+        assertEquals(8, records.size());
+        assertEquals(11, records.get(7).getSequence());
+        assertEquals(FlightRecorder.TTS_STOP, records.get(7).getType());
+    }
+
+    @Test
+    public void write_cutsTextOnCharacterBoundary() throws Exception {
+        final FlightRecorder recorder = new FlightRecorder(file, 4);
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < FlightRecorder.TEXT_SIZE; i++)
+            text.append('ж');//two bytes each
+        recorder.write(FlightRecorder.WAKE_WORD, 0, 0, 0, 1, "x" + text);
+        final List<FlightRecordReader.Record> records = FlightRecordReader.read(recorder.snapshot());
+        recorder.close();
+        final String decoded = records.get(0).getText();
+        assertEquals(1 + (FlightRecorder.TEXT_SIZE - 1) / 2, decoded.length());
+        assertTrue(decoded.startsWith("xж"));
+        assertFalse(decoded.contains("�"));
+    }
+
+    @Test
+    public void read_skipsTornRecord() throws Exception {
+        final FlightRecorder recorder = new FlightRecorder(file, 4);
+        recorder.write(FlightRecorder.COMMAND_REQUEST, 1, 0, 0, 0, "a");
+        recorder.write(FlightRecorder.COMMAND_REQUEST, 2, 0, 0, 0, "b");
+        final byte[] dump = recorder.snapshot();
+        recorder.close();
+        //a write interrupted before its commit marker
+        dump[FlightRecorder.HEADER_SIZE + 2 * FlightRecorder.RECORD_SIZE - 8] = 0;
+        final List<FlightRecordReader.Record> records = FlightRecordReader.read(dump);
+        assertEquals(1, records.size());
+        assertEquals("a", records.get(0).getText());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        FlightRecordReader.read(new byte[FlightRecorder.HEADER_SIZE]);
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameGateTest {
+
+    private final static long MS = 1000000L;
+
+    @Test
+    public void offer_limitsRate() throws Exception {
+        final FrameGate<String> gate = new FrameGate<>(10);
+        assertNull(gate.offer("a", 0));
+        assertEquals("a", gate.take());
+        assertEquals("b", gate.offer("b", 33 * MS));//camera at 30 fps
+        assertEquals("c", gate.offer("c", 66 * MS));
+        assertNull(gate.offer("d", 100 * MS));
+        assertEquals("d", gate.take());
+        //a late frame does not let the next ones through at once
+        assertNull(gate.offer("e", 350 * MS));
+        assertEquals("e", gate.take());
+        assertEquals("f", gate.offer("f", 380 * MS));
+        assertNull(gate.offer("g", 450 * MS));
+        assertEquals(3, gate.getPassed());
+        assertEquals(3, gate.getSkipped());
+        assertEquals(0, gate.getDropped());
+    }
+
+    @Test
+    public void offer_replacesFrameWaitingForConsumer() throws Exception {
+        final FrameGate<String> gate = new FrameGate<>(0);
+        assertNull(gate.offer("a", 0));
+        assertEquals("a", gate.offer("b", MS));
+        assertEquals("b", gate.offer("c", 2 * MS));
+        assertEquals("c", gate.take());
+        assertEquals(2, gate.getDropped());
+    }
+
+    @Test
+    public void close_releasesConsumer() throws Exception {
+        final FrameGate<String> gate = new FrameGate<>(0);
+        final String[] taken = new String[]{"none"};
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken[0] = gate.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        assertNull(gate.close());
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+        assertNull(taken[0]);
+        assertEquals("a", gate.offer("a", 0));
+    }
+}
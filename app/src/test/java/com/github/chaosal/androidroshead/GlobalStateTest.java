@@ -0,0 +1,44 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GlobalStateTest {
+
+    @Test
+    public void flags_areIndependent() throws Exception {
+        final GlobalState state = new GlobalState();
+        assertEquals(GlobalState.IDLE, state.getState());
+        state.setListening(true);
+        state.setSpeaking(true);
+        assertTrue(state.isListening());
+        assertTrue(state.isSpeaking());
+        state.setListening(false);
+        assertFalse(state.isListening());
+        assertEquals(GlobalState.SPEAKING, state.getState());
+    }
+
+    @Test
+    public void observers_getTheResultingStateOnTransitionsOnly() throws Exception {
+        final GlobalState state = new GlobalState();
+        final List<Integer> states = new ArrayList<>();
+        state.addObserver(new GlobalState.StateObserver() {
+            @Override
+            public void onStateChanged(int current) {
+                states.add(current);
+            }
+        });
+        state.setSpeaking(true);
+        state.setSpeaking(true);
+        state.setMuted(true);
+        state.setSpeaking(false);
+        assertEquals(3, states.size());
+        assertEquals(GlobalState.SPEAKING, (int) states.get(0));
+        assertEquals(GlobalState.SPEAKING | GlobalState.MUTED, (int) states.get(1));
+        assertEquals(GlobalState.MUTED, (int) states.get(2));
+    }
+}
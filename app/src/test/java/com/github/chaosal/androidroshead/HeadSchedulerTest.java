@@ -0,0 +1,261 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HeadSchedulerTest {
+
+    private final List<Throwable> errors = new ArrayList<>();
+    private final HeadScheduler scheduler = new HeadScheduler(new Thread.UncaughtExceptionHandler() {
+        @Override
+        public synchronized void uncaughtException(Thread thread, Throwable throwable) {
+            errors.add(throwable);
+        }
+    });
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void execute_runsLaneInOrderAndSurvivesErrors() throws Exception {
+        final ScheduledExecutorService lane = scheduler.executor(HeadScheduler.Lane.SENSOR);
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    if (index == 50)
+                        throw new IllegalStateException("task failed");
+                }
+            });
+        }
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100, order.size());
+        for (int i = 0; i < order.size(); i++)
+            assertEquals(i, (int) order.get(i));
+        assertEquals(1, errors.size());
+        assertTrue(Metrics.histogram("scheduler/sensor_wait").getCount() >= 101);
+    }
+
+    @Test
+    public void task_isRepostedAndMeasured() throws Exception {
+        final ScheduledExecutorService lane = scheduler.executor(HeadScheduler.Lane.SENSOR);
+        final long waits = Metrics.histogram("scheduler/sensor_wait").getCount();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch[] ran = new CountDownLatch[1];
+        final HeadScheduler.Task task = new HeadScheduler.Task(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (runs.incrementAndGet() == 2)
+                        throw new IllegalStateException("task failed");
+                } finally {
+                    ran[0].countDown();
+                }
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            ran[0] = new CountDownLatch(1);
+            lane.execute(task);//posted again only after it ran
+            assertTrue(ran[0].await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(100, runs.get());
+        assertEquals(1, errors.size());
+        assertTrue(Metrics.histogram("scheduler/sensor_wait").getCount() - waits >= 100);
+        lane.shutdown();
+        assertTrue(lane.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullLane_dropsAndCountsWork() throws Exception {
+        final ScheduledExecutorService lane = scheduler.executor(HeadScheduler.Lane.BACKGROUND);
+        final long dropped = Metrics.counter("scheduler/background_dropped").get();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        final AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < HeadScheduler.LANE_CAPACITY + 10; i++)
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            });
+        assertEquals(10, Metrics.counter("scheduler/background_dropped").get() - dropped);
+        release.countDown();
+        lane.shutdown();
+        //dropped tasks are not waited for
+        assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(HeadScheduler.LANE_CAPACITY, runs.get());
+    }
+
+    @Test
+    public void schedule_firesAfterDelayOnLane() throws Exception {
+        final long start = System.nanoTime();
+        final ScheduledFuture<String> future = scheduler.executor(HeadScheduler.Lane.NETWORK)
+                .schedule(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return Thread.currentThread().getName();
+                    }
+                }, 100, TimeUnit.MILLISECONDS);
+        assertEquals("head-network", future.get(5, TimeUnit.SECONDS));
+        final long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("fired after " + millis + " ms", millis >= 100 && millis < 1000);
+    }
+
+    @Test
+    public void scheduleAtFixedRate_skipsRunsWhileBusy() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final long skipped = Metrics.counter("scheduler/background_skipped").get();
+        final ScheduledFuture<?> future = scheduler.executor(HeadScheduler.Lane.BACKGROUND)
+                .scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        runs.incrementAndGet();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, 0, 20, TimeUnit.MILLISECONDS);
+        Thread.sleep(500);
+        future.cancel(false);
+        final int count = runs.get();
+        //runs do not pile up behind a slow one
+        assertTrue("runs " + count, count >= 2 && count <= 6);
+        assertTrue(Metrics.counter("scheduler/background_skipped").get() - skipped > 5);
+        Thread.sleep(200);
+        assertTrue(runs.get() <= count + 1);
+    }
+
+    @Test
+    public void busyLane_doesNotDelayAudio() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.executor(HeadScheduler.Lane.NETWORK).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();//a stalled master call
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final CountDownLatch answered = new CountDownLatch(1);
+        scheduler.executor(HeadScheduler.Lane.AUDIO).schedule(new Runnable() {
+            @Override
+            public void run() {
+                answered.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        assertTrue(answered.await(1, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void shutdown_dropsWorkOfStoppingNodes() throws Exception {
+        scheduler.shutdown();
+        final ScheduledExecutorService lane = scheduler.executor(HeadScheduler.Lane.SENSOR);
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                fail("ran after shutdown");
+            }
+        });
+        assertTrue(lane.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 10, TimeUnit.MILLISECONDS).isCancelled());
+    }
+
+    @Test
+    public void laneShutdown_stopsOnlyItsView() throws Exception {
+        final ScheduledExecutorService node = scheduler.executor(HeadScheduler.Lane.AUDIO);
+        final AtomicInteger runs = new AtomicInteger();
+        final ScheduledFuture<?> periodic = node.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        assertTrue(node.shutdownNow().isEmpty());
+        assertTrue(node.isShutdown());
+        assertTrue(node.awaitTermination(1, TimeUnit.SECONDS));
+        node.execute(new Runnable() {
+            @Override
+            public void run() {
+                fail("ran after the view was shut down");
+            }
+        });
+        Thread.sleep(50);
+        assertTrue(periodic.isCancelled());
+        final int count = runs.get();
+        //other nodes go on using the lane
+        final ScheduledExecutorService other = scheduler.executor(HeadScheduler.Lane.AUDIO);
+        assertFalse(other.isShutdown());
+        final CountDownLatch ran = new CountDownLatch(1);
+        other.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        assertEquals(count, runs.get());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void scheduleAtFixedRate_keepsFailingTask() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final ScheduledFuture<?> future = scheduler.executor(HeadScheduler.Lane.SENSOR)
+                .scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (runs.incrementAndGet() == 1)
+                            throw new IllegalStateException("first run failed");
+                    }
+                }, 0, 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(200);
+        future.cancel(false);
+        assertTrue("runs " + runs.get(), runs.get() > 2);
+        assertEquals(1, errors.size());
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImuSampleBufferTest {
+
+    private static final float[] Q = {1, 0, 0, 0};
+    private static final float[] V = {1, 2, 3};
+
+    @Test
+    public void poll_keepsOrderAndStamps() throws Exception {
+        final ImuSampleBuffer buffer = new ImuSampleBuffer(4);
+        for (int i = 1; i <= 3; i++)
+            assertTrue(buffer.add(i * 10, Q, V, V));
+        final ImuSampleBuffer.Sample sample = new ImuSampleBuffer.Sample();
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(buffer.poll(sample));
+            assertEquals(i * 10, sample.stamp);
+            assertEquals(3, sample.linearAcceleration[2], 0);
+        }
+        assertFalse(buffer.poll(sample));
+    }
+
+    @Test
+    public void add_dropsWhenFull() throws Exception {
+        final ImuSampleBuffer buffer = new ImuSampleBuffer(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 6; i++)
+            buffer.add(i, Q, V, V);
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getDropped());
+    }
+}
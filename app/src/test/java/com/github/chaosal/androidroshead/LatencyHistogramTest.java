@@ -0,0 +1,39 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucket_coversValuesWithinResolution() throws Exception {
+        long previous = -1;
+        for (long value : new long[]{0, 1, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE}) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket >= previous);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            assertTrue(LatencyHistogram.upperBound(bucket) - value <= value / 8);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void getPercentile() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 1e-6);
+        final long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        final long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        assertEquals(1000000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(true);
+    }
+
+    @Test
+    public void counter_isSharedByName() throws Exception {
+        final Metrics.Counter counter = Metrics.counter("test/shared");
+        assertSame(counter, Metrics.counter("test/shared"));
+        counter.increment();
+        Metrics.counter("test/shared").add(2);
+        assertEquals(3, counter.get());
+    }
+
+    @Test
+    public void disabled_metricsDoNotChange() throws Exception {
+        final Metrics.Counter counter = Metrics.counter("test/disabled_counter");
+        final Metrics.Histogram histogram = Metrics.histogram("test/disabled_histogram");
+        Metrics.setEnabled(false);
+        counter.increment();
+        histogram.record(1000);
+        histogram.recordSince(System.nanoTime());
+        assertEquals(0, counter.get());
+        assertEquals(0, histogram.getCount());
+        Metrics.setEnabled(true);
+        histogram.recordSince(System.nanoTime());
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    public void getAll_listsMetricsByName() throws Exception {
+        Metrics.gauge("order/z_gauge", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return 42;
+            }
+        });
+        Metrics.histogram("order/m_histogram");
+        Metrics.counter("order/a_counter");
+        final List<String> names = new ArrayList<>();
+        for (String name : Metrics.getAll().keySet())
+            if (name.startsWith("order/"))
+                names.add(name);
+        assertEquals("[order/a_counter, order/m_histogram, order/z_gauge]", names.toString());
+        assertEquals(42, ((Metrics.Gauge) Metrics.getAll().get("order/z_gauge")).get());
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MotionDetectorTest {
+
+    private final static int WIDTH = 64;
+    private final static int HEIGHT = 48;
+    private final static long S = 1000000000L;
+
+    private static byte[] frame(int luma) {
+        final byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];//NV21
+        Arrays.fill(frame, 0, WIDTH * HEIGHT, (byte) luma);
+        return frame;
+    }
+
+    @Test
+    public void accept_passesMotionAndKeyframes() throws Exception {
+        final MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, 8, 0.05, S, 10 * S);
+        final byte[] still = frame(100);
+        assertTrue(detector.accept(still, 0));//no reference yet: motion
+        assertTrue(detector.accept(still, S / 10));//held
+        assertFalse(detector.accept(still, 2 * S));
+        assertEquals(0, detector.getScore(), 0);
+
+        final byte[] moved = frame(100);
+        Arrays.fill(moved, 0, WIDTH * 8, (byte) 200);//one grid row of six changes
+        assertTrue(detector.accept(moved, 3 * S));
+        assertEquals(1.0 / 6, detector.getScore(), 1e-9);
+        assertTrue(detector.accept(moved, 3 * S + S / 2));//held
+        assertFalse(detector.accept(moved, 4 * S + S / 10));
+
+        assertTrue(detector.accept(moved, 14 * S));//keyframe heartbeat
+        assertFalse(detector.isMoving());
+        assertEquals(1, detector.getKeyframes());
+        assertEquals(4, detector.getMotionFrames());
+    }
+
+    @Test
+    public void accept_ignoresSensorNoise() throws Exception {
+        final MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, 8, 0.05, S, 10 * S);
+        detector.accept(frame(100), 0);
+        detector.accept(frame(100), 2 * S);
+        assertFalse(detector.accept(frame(100 + MotionDetector.PIXEL_NOISE), 3 * S));
+        assertTrue(detector.accept(frame(100 + 2 * MotionDetector.PIXEL_NOISE + 1), 4 * S));
+        assertEquals(1, detector.getScore(), 0);
+    }
+}
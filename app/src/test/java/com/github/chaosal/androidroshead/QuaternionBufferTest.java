@@ -0,0 +1,86 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class QuaternionBufferTest {
+
+    @Test
+    public void read_returnsWrittenSample() throws Exception {
+        final QuaternionBuffer buffer = new QuaternionBuffer();
+        final float[] q = new float[4];
+        assertEquals(0, buffer.read(q));
+        buffer.write(new float[]{1, 2, 3, 4}, 42);
+        assertEquals(42, buffer.read(q));
+        assertEquals(42, buffer.getStamp());
+        assertEquals(1, q[0], 0);
+        assertEquals(4, q[3], 0);
+    }
+
+    @Test
+    public void writeAndRead_doNotAllocate() throws Exception {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final QuaternionBuffer buffer = new QuaternionBuffer();
+        final float[] in = new float[4];
+        final float[] out = new float[4];
+        final int events = 100000;
+        for (int i = 0; i < events; i++)//warm up JIT
+            exercise(buffer, in, out, i);
+
+        final long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < events; i++)
+            exercise(buffer, in, out, i);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        //the measurement itself may allocate a few bytes, anything per event would be megabytes
+        assertTrue("allocated " + allocated + " bytes for " + events + " events", allocated < 1024);
+    }
+
+    @Test
+    public void concurrentReads_areNeverTorn() throws Exception {
+        final QuaternionBuffer buffer = new QuaternionBuffer();
+        final int samples = 2000000;
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final float[] q = new float[4];
+                for (int i = 1; i <= samples; i++) {
+                    q[0] = q[1] = q[2] = q[3] = i;
+                    buffer.write(q, i);
+                }
+            }
+        });
+        final String[] failure = new String[1];
+        final Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final float[] q = new float[4];
+                    long stamp = 0;
+                    while (stamp < samples && failure[0] == null) {
+                        stamp = buffer.read(q);
+                        if (stamp != 0 && (q[0] != (float) stamp || q[1] != q[0] || q[2] != q[0] || q[3] != q[0]))
+                            failure[0] = "torn read at " + stamp + ": " + q[0] + " " + q[1] + " " + q[2] + " " + q[3];
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        writer.start();
+        writer.join();
+        for (Thread reader : readers)
+            reader.join();
+        assertNull(failure[0]);
+    }
+
+    private static void exercise(QuaternionBuffer buffer, float[] in, float[] out, int i) {
+        in[0] = i;
+        buffer.write(in, i);
+        buffer.read(out);
+    }
+}
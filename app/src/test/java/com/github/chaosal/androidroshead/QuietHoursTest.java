@@ -0,0 +1,52 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class QuietHoursTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void isQuiet_usesTwentyFourHourClock() throws Exception {
+        final QuietHours quietHours = QuietHours.parse(QuietHours.DEFAULT, UTC);
+        assertTrue(quietHours.isQuiet(time(Calendar.MONDAY, 23, 0)));
+        assertTrue(quietHours.isQuiet(time(Calendar.TUESDAY, 3, 0)));
+        assertFalse(quietHours.isQuiet(time(Calendar.TUESDAY, 9, 0)));
+        assertFalse(quietHours.isQuiet(time(Calendar.TUESDAY, 21, 59)));
+    }
+
+    @Test
+    public void isQuiet_appliesPerDayWindows() throws Exception {
+        final QuietHours quietHours = QuietHours.parse("mon-fri 23:00-07:00; sat,sun 00:00-10:00", UTC);
+        assertTrue(quietHours.isQuiet(time(Calendar.FRIDAY, 23, 30)));
+        assertTrue(quietHours.isQuiet(time(Calendar.SATURDAY, 9, 0)));//saturday's own window
+        assertFalse(quietHours.isQuiet(time(Calendar.SATURDAY, 23, 30)));
+        assertFalse(quietHours.isQuiet(time(Calendar.MONDAY, 8, 0)));
+    }
+
+    @Test
+    public void nextTransition_isCachedBoundary() throws Exception {
+        final QuietHours quietHours = QuietHours.parse("22:00-09:00", UTC);
+        assertEquals(time(Calendar.MONDAY, 22, 0), quietHours.nextTransition(time(Calendar.MONDAY, 12, 0)));
+        assertEquals(time(Calendar.TUESDAY, 9, 0), quietHours.nextTransition(time(Calendar.MONDAY, 22, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsMalformedSpecification() throws Exception {
+        QuietHours.parse("noon-midnight", UTC);
+    }
+
+    private static long time(int day, int hour, int minute) {
+        final Calendar calendar = new GregorianCalendar(UTC);
+        calendar.clear();
+        calendar.set(2016, Calendar.JANUARY, 4, hour, minute);//monday
+        calendar.add(Calendar.DAY_OF_MONTH, (day - Calendar.MONDAY + 7) % 7);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.chaosal.androidroshead;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speech pipeline on a plain JVM: {@link SpeechController} and {@link SpeechPlayer} with a fake recognizer
+ * driven by scripted hypotheses, an in-process command service and a fake TTS engine that records the latency
+ * from the wake word to the response being spoken. Responses and engine callbacks are handled on the audio lane
+ * of a {@link HeadScheduler}, as on the device.
+ * Shared by the latency test and the JMH benchmarks.
+ */
+public class SpeechPipelineFixture {
+
+    public final static String WAKE_WORD = "робот";
+    public final static String[] COMMANDS = {"который час", "включи свет", "какая погода", "выключи свет"};
+
+    private final GlobalState globalState = new GlobalState();
+    private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    private final HeadScheduler scheduler = new HeadScheduler(new Thread.UncaughtExceptionHandler() {
+        @Override
+        public void uncaughtException(Thread thread, Throwable throwable) {
+            errors.add(throwable);
+        }
+    });
+    private final ScheduledExecutorService executor = scheduler.executor(HeadScheduler.Lane.AUDIO);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Semaphore spoken = new Semaphore(0);
+    private final SpeechPlayer player;
+    private final SpeechController controller;
+    private volatile long wakeAt;
+
+    public SpeechPipelineFixture() {
+        player = new SpeechPlayer(new SpeechQueue(8), globalState, new SpeechPlayer.Engine() {
+            @Override
+            public boolean speak(SpeechQueue.Utterance utterance) {
+                latency.record(System.nanoTime() - wakeAt);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        player.onUtteranceStarted();
+                        player.onUtteranceFinished();
+                        spoken.release();
+                    }
+                });
+                return true;
+            }
+        });
+        controller = new SpeechController(globalState, WAKE_WORD,
+                new ConfidenceScorer(-100, 5, 0.1, 10, 0.5), new ConfidenceScorer(-30, 5, 0.1, 10, 0.5),
+                new SpeechController.Recognizer() {
+                    @Override
+                    public void listenForWakeWord() {
+                        globalState.setListening(false);
+                    }
+
+                    @Override
+                    public void listenForCommand() {
+                        globalState.setListening(true);
+                    }
+                },
+                new SpeechController.Speaker() {
+                    @Override
+                    public void speak(String text) {
+                        player.offer(text, SpeechQueue.Priority.HIGH);
+                    }
+                },
+                new SpeechController.Events() {
+                    @Override
+                    public void onPartialResult(String text) {
+                    }
+
+                    @Override
+                    public void onWakeWord(String text, int score, double frameScore, double confidence, boolean accepted) {
+                    }
+
+                    @Override
+                    public void onCommand(String text, int score, int frames, double confidence, boolean accepted, long latencyNanos) {
+                    }
+
+                    @Override
+                    public void onCommandError(String command, Exception e) {
+                    }
+                });
+        controller.setDispatcher(new CommandDispatcher(new CommandDispatcher.Transport() {
+            @Override
+            public void call(final String command, final CommandDispatcher.Callback callback) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResponse(command);
+                    }
+                });
+            }
+
+            @Override
+            public void reset() {
+            }
+        }, executor, controller, 2, 5000, 0, "timeout", "failure"));
+    }
+
+    /**
+     * Replays the hypotheses of one command as the recognizer reports them and waits until the response is spoken
+     *
+     * @return false if nothing was spoken within the timeout
+     */
+    public boolean replay(String command) throws InterruptedException {
+        controller.onPartialResult("", 0, 10);
+        wakeAt = System.nanoTime();
+        controller.onPartialResult(WAKE_WORD, -400, 40);
+        controller.onPartialResult(command.substring(0, command.indexOf(' ')), -300, 30);
+        controller.onPartialResult(command, -1000, 100);
+        controller.onCommandEnded();
+        controller.onCommandResult(command, -1000, 100);
+        return spoken.tryAcquire(5, TimeUnit.SECONDS);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Failures of lane tasks, reported by the test or the benchmark
+     */
+    public List<Throwable> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public void shutdown() {
+        player.shutdown();
+        scheduler.shutdown();
+    }
+}
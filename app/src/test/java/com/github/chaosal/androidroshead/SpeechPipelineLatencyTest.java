@@ -0,0 +1,72 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpeechPipelineLatencyTest {
+
+    private final SpeechPipelineFixture pipeline = new SpeechPipelineFixture();
+
+    @After
+    public void tearDown() throws Exception {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void replay_wakeWordToResponseLatency() throws Exception {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final int commands = 2000;
+        for (int i = 0; i < commands; i++)//warm up JIT
+            assertTrue(pipeline.replay(SpeechPipelineFixture.COMMANDS[i % SpeechPipelineFixture.COMMANDS.length]));
+        pipeline.getLatency().reset();
+
+        final long[] ids = pipelineThreads();
+        final long allocatedBefore = allocatedBytes(threads, ids);
+        final long start = System.nanoTime();
+        for (int i = 0; i < commands; i++)
+            assertTrue(pipeline.replay(SpeechPipelineFixture.COMMANDS[i % SpeechPipelineFixture.COMMANDS.length]));
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = allocatedBytes(threads, ids) - allocatedBefore;
+
+        final LatencyHistogram latency = pipeline.getLatency();
+        final String report = String.format("wake word to response: p50 %d us, p99 %d us, max %d us; "
+                        + "pipeline threads allocated %d bytes per command, %.1f MB/s",
+                latency.getPercentile(50) / 1000, latency.getPercentile(99) / 1000, latency.getMax() / 1000,
+                allocated / commands, allocated * 1e3 / elapsed);
+        System.out.println(report);//in the test report on every run, the JMH benchmark has the detail
+        assertTrue(report + "; errors " + pipeline.getErrors(), pipeline.getErrors().isEmpty());
+        assertEquals(report, commands, latency.getCount());
+        assertTrue(report, latency.getPercentile(50) <= latency.getPercentile(99));
+        //generous bound: only catches the pipeline blocking on something, e.g. a sleep or a lost wake-up
+        assertTrue(report, latency.getPercentile(99) < 1000000000L);
+    }
+
+    /**
+     * The replaying thread, the audio lane and the timer wheel; JIT, GC and other lanes are left out
+     */
+    private static long[] pipelineThreads() {
+        final List<Long> ids = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread == Thread.currentThread() || thread.getName().equals("head-audio")
+                    || thread.getName().equals("head-timer"))
+                ids.add(thread.getId());
+        final long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ids.get(i);
+        return result;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads, long[] ids) {
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(ids))
+            total += Math.max(allocated, 0);
+        return total;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpeechPlayerTest {
+
+    @Test
+    public void speakNext_skipsRejectedUtterances() throws Exception {
+        final List<String> spoken = new ArrayList<>();
+        final GlobalState state = new GlobalState();
+        final SpeechPlayer player = new SpeechPlayer(new SpeechQueue(8), state, new SpeechPlayer.Engine() {
+            @Override
+            public boolean speak(SpeechQueue.Utterance utterance) {
+                if (utterance.getText().startsWith("bad"))
+                    return false;
+                spoken.add(utterance.getText());
+                return true;
+            }
+        });
+        state.setMuted(true);
+        player.offer("bad one", SpeechQueue.Priority.NORMAL);
+        player.offer("bad two", SpeechQueue.Priority.NORMAL);
+        player.offer("good", SpeechQueue.Priority.NORMAL);
+        state.setMuted(false);
+        //the queue goes on past the rejected ones without another message
+        assertEquals(1, spoken.size());
+        assertEquals("good", spoken.get(0));
+        player.onUtteranceFinished();
+        assertTrue(player.isIdle());
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpeechQueueTest {
+
+    @Test
+    public void poll_ordersByPriorityThenArrival() throws Exception {
+        final SpeechQueue queue = new SpeechQueue(4);
+        queue.offer("low", SpeechQueue.Priority.LOW);
+        queue.offer("normal 1", SpeechQueue.Priority.NORMAL);
+        queue.offer("high", SpeechQueue.Priority.HIGH);
+        queue.offer("normal 2", SpeechQueue.Priority.NORMAL);
+        assertEquals("high", queue.poll().getText());
+        assertEquals("normal 1", queue.poll().getText());
+        assertEquals("normal 2", queue.poll().getText());
+        assertEquals("low", queue.poll().getText());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void offer_coalescesIdenticalTexts() throws Exception {
+        final SpeechQueue queue = new SpeechQueue(4);
+        queue.offer("charge me", SpeechQueue.Priority.LOW);
+        queue.offer("status", SpeechQueue.Priority.NORMAL);
+        queue.offer("charge me", SpeechQueue.Priority.HIGH);
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getCoalesced());
+        assertEquals("charge me", queue.poll().getText());
+    }
+
+    @Test
+    public void offer_whenFull_appliesDropPolicy() throws Exception {
+        final SpeechQueue queue = new SpeechQueue(2);
+        queue.offer("low", SpeechQueue.Priority.LOW);
+        queue.offer("normal", SpeechQueue.Priority.NORMAL);
+        assertFalse(queue.offer("low 2", SpeechQueue.Priority.LOW));
+        assertTrue(queue.offer("normal 2", SpeechQueue.Priority.NORMAL));//evicts low
+        assertTrue(queue.offer("high", SpeechQueue.Priority.HIGH));//evicts the oldest normal
+        assertEquals(3, queue.getDropped());
+        assertEquals("high", queue.poll().getText());
+        assertEquals("normal 2", queue.poll().getText());
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class UtteranceCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("tts", "");
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void key_dependsOnVoiceParameters() throws Exception {
+        assertEquals(UtteranceCache.key("hi", "ru", 1, 1), UtteranceCache.key("hi", "ru", 1, 1));
+        assertFalse(UtteranceCache.key("hi", "ru", 1, 1).equals(UtteranceCache.key("hi", "ru", 1.5f, 1)));
+        assertFalse(UtteranceCache.key("hi", "ru", 1, 1).equals(UtteranceCache.key("hi", "en", 1, 1)));
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() throws Exception {
+        final UtteranceCache cache = new UtteranceCache(dir, 1000);
+        assertNull(cache.get("a"));
+        synthesise(cache, "a", 100);
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws Exception {
+        final UtteranceCache cache = new UtteranceCache(dir, 250);
+        synthesise(cache, "a", 100);
+        synthesise(cache, "b", 100);
+        cache.get("a");
+        synthesise(cache, "c", 100);
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(200, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void constructor_reusesFilesOnDisk() throws Exception {
+        synthesise(new UtteranceCache(dir, 1000), "a", 100);
+        final UtteranceCache cache = new UtteranceCache(dir, 1000);
+        assertNotNull(cache.get("a"));
+        assertEquals(100, cache.getBytes());
+    }
+
+    private static void synthesise(UtteranceCache cache, String key, int size) throws IOException {
+        final FileOutputStream out = new FileOutputStream(cache.pendingFile(key));
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        cache.put(key);
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.chaosal.androidroshead;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class VoiceActivityDetectorTest {
+
+    private final static int SAMPLE_RATE = 16000;
+    private final static int READ = SAMPLE_RATE * 4 / 10;//as the recognizer reads
+
+    /**
+     * Samples of a 16 bit mono WAV fixture
+     */
+    private static short[] readWav(String name) throws IOException {
+        final InputStream in = VoiceActivityDetectorTest.class.getResourceAsStream("/vad/" + name);
+        assertNotNull(name, in);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[4096];
+        int read;
+        try {
+            while ((read = in.read(chunk)) > 0)
+                bytes.write(chunk, 0, read);
+        } finally {
+            in.close();
+        }
+        final ByteBuffer wav = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        wav.position(12);//RIFF header
+        while (true) {
+            final byte[] id = new byte[4];
+            wav.get(id);
+            final int size = wav.getInt();
+            if (new String(id, "US-ASCII").equals("data")) {
+                final short[] samples = new short[size / 2];
+                wav.asShortBuffer().get(samples);
+                return samples;
+            }
+            wav.position(wav.position() + size);
+        }
+    }
+
+    private static VoiceActivityDetector newDetector() {
+        return new VoiceActivityDetector(SAMPLE_RATE, 10, 0.5, 30, 300, 200);
+    }
+
+    /**
+     * Feeds the fixture in recognizer reads
+     *
+     * @return sample index of the first sample passed on, -1 if none
+     */
+    private static long feed(VoiceActivityDetector detector, short[] audio) {
+        final short[] buffer = new short[READ];
+        final short[] out = new short[READ + detector.getPreRollSamples()];
+        long firstPassed = -1;
+        for (int offset = 0; offset < audio.length; offset += READ) {
+            final int length = Math.min(READ, audio.length - offset);
+            System.arraycopy(audio, offset, buffer, 0, length);
+            final int passed = detector.process(buffer, length, out);
+            if (passed > 0 && firstPassed < 0)
+                firstPassed = offset + length - passed;
+        }
+        return firstPassed;
+    }
+
+    @Test
+    public void process_passesNothingInQuietRoom() throws Exception {
+        final VoiceActivityDetector detector = newDetector();
+        assertEquals(-1, feed(detector, readWav("room.wav")));
+        assertEquals(0, detector.getDutyCycle(), 0);
+        assertFalse(detector.isSpeech());
+    }
+
+    @Test
+    public void process_passesSpeechWithPreRoll() throws Exception {
+        final VoiceActivityDetector detector = newDetector();
+        final short[] audio = readWav("speech.wav");
+        final long firstPassed = feed(detector, audio);
+        //syllables at 0.5-1.0 s, the pre-roll reaches back before the onset
+        assertTrue(firstPassed >= SAMPLE_RATE * 3 / 10 && firstPassed <= SAMPLE_RATE / 2);
+        final double passedSeconds = (double) detector.getPassedSamples() / SAMPLE_RATE;
+        assertTrue(passedSeconds >= 0.5 && passedSeconds <= 1.1);
+        assertTrue(detector.getDutyCycle() < 0.75);
+        assertFalse(detector.isSpeech());//the hangover is over by the end
+    }
+
+    /**
+     * Level of the last frame as the detector measures it
+     */
+    private static double lastFrameDb(short[] audio) {
+        final int length = SAMPLE_RATE * VoiceActivityDetector.FRAME_MILLIS / 1000;
+        double energy = 0;
+        for (int i = audio.length - length; i < audio.length; i++)
+            energy += (double) audio[i] * audio[i];
+        return 10 * Math.log10(energy / length + 1);
+    }
+
+    @Test
+    public void process_ignoresHiss() throws Exception {
+        final VoiceActivityDetector detector = newDetector();
+        feed(detector, readWav("room.wav"));//the noise floor settles below the hiss first
+        final short[] hiss = readWav("hiss.wav");
+        //loud enough to pass on energy, only the zero crossings reject it
+        assertTrue(lastFrameDb(hiss) > detector.getNoiseFloorDb() + 10);
+        assertEquals(-1, feed(detector, hiss));
+    }
+
+    @Test
+    public void process_followsRisingNoiseFloor() throws Exception {
+        final VoiceActivityDetector detector = newDetector();
+        final short[] hum = new short[SAMPLE_RATE * 30];
+        for (int i = 0; i < hum.length; i++)
+            hum[i] = (short) (i < SAMPLE_RATE ? 0 : 2000 * Math.sin(2 * Math.PI * 100 * i / SAMPLE_RATE));
+        feed(detector, hum);
+        //a steady tone switched on is taken for speech at first, not for ever
+        assertFalse(detector.isSpeech());
+        assertTrue(detector.getDutyCycle() < 0.4);//about 10 s to adapt
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsPreRollShorterThanOnset() throws Exception {
+        new VoiceActivityDetector(SAMPLE_RATE, 10, 0.5, 100, 300, 50);
+    }
+}
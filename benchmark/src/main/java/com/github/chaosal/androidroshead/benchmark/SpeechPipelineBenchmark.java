@@ -0,0 +1,51 @@
+package com.github.chaosal.androidroshead.benchmark;
+
+import com.github.chaosal.androidroshead.SpeechPipelineFixture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wake word to spoken response through the device-free pipeline.
+ * Sample time mode reports the latency distribution (p50, p99), run with -prof gc for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SpeechPipelineBenchmark {
+
+    private SpeechPipelineFixture pipeline;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        pipeline = new SpeechPipelineFixture();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.shutdown();
+        if (!pipeline.getErrors().isEmpty())
+            throw new IllegalStateException("pipeline errors: " + pipeline.getErrors());
+    }
+
+    @Benchmark
+    public boolean wakeWordToResponse() throws InterruptedException {
+        next = (next + 1) % SpeechPipelineFixture.COMMANDS.length;
+        return pipeline.replay(SpeechPipelineFixture.COMMANDS[next]);
+    }
+}